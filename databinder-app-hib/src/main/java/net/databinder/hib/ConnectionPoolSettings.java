@@ -0,0 +1,231 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.hib;
+
+import java.util.function.Function;
+
+import org.apache.wicket.WicketRuntimeException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+
+/**
+ * Connection pool type and sizing for a session factory. Configures the pool behind a
+ * {@link MeteredConnectionProvider}, so its use can be observed while the application runs.
+ * <p>Settings may be read from application parameters named <code>databinder.pool.type</code>
+ * (<code>c3p0</code> or <code>hikari</code>), <code>databinder.pool.maxSize</code>,
+ * <code>databinder.pool.minIdle</code>, <code>databinder.pool.idleTimeout</code> (seconds),
+ * <code>databinder.pool.acquireTimeout</code> (milliseconds) and
+ * <code>databinder.pool.testPeriod</code> (seconds). Each may be given for a single
+ * session factory key by inserting the key, as in <code>databinder.pool.tenant1.maxSize</code>.</p>
+ * <p>HikariCP requires the hibernate-hikaricp module on the classpath.</p>
+ * @see DataApplication#getConnectionPoolSettings(Object)
+ */
+public class ConnectionPoolSettings {
+
+	/** Prefix of application parameter names. */
+	public static final String PARAMETER_PREFIX = "databinder.pool.";
+
+	/** Supported pools. */
+	public enum Type {
+		C3P0("org.hibernate.c3p0.internal.C3P0ConnectionProvider"),
+		HIKARI("org.hibernate.hikaricp.internal.HikariCPConnectionProvider");
+
+		private final String providerClass;
+
+		Type(String providerClass) {
+			this.providerClass = providerClass;
+		}
+
+		/** @return class name of the pool's Hibernate connection provider */
+		public String getProviderClass() {
+			return providerClass;
+		}
+	}
+
+	private Type type = Type.C3P0;
+	private int maxSize = 20, minIdle = -1;
+	private int idleTimeout = 3000, testPeriod = 300;
+	private long acquireTimeout = 0;
+
+	/**
+	 * Reads settings for a session factory key, falling back to settings for all keys and
+	 * then to the defaults: C3P0 with at most 20 connections.
+	 * @param parameters looks up application parameters by name, returning null if unset
+	 * @param key session factory key, or null for the default factory
+	 * @return settings from parameters, or null if no pool parameter is set for the key
+	 * @throws WicketRuntimeException if a parameter is not valid
+	 */
+	public static ConnectionPoolSettings fromParameters(Function<String, String> parameters, Object key) {
+		boolean set = false;
+		for (String name : new String[] { "type", "maxSize", "minIdle", "idleTimeout", "testPeriod", "acquireTimeout" })
+			set |= parameter(parameters, key, name) != null;
+		if (!set)
+			return null;
+		ConnectionPoolSettings settings = new ConnectionPoolSettings();
+		String type = parameter(parameters, key, "type");
+		if (type != null)
+			try {
+				settings.setType(Type.valueOf(type.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				throw new WicketRuntimeException("Unknown connection pool type: " + type, e);
+			}
+		settings.setMaxSize(intParameter(parameters, key, "maxSize", settings.getMaxSize()));
+		settings.setMinIdle(intParameter(parameters, key, "minIdle", settings.getMinIdle()));
+		settings.setIdleTimeout(intParameter(parameters, key, "idleTimeout", settings.getIdleTimeout()));
+		settings.setTestPeriod(intParameter(parameters, key, "testPeriod", settings.getTestPeriod()));
+		settings.setAcquireTimeout(intParameter(parameters, key, "acquireTimeout", (int) settings.getAcquireTimeout()));
+		return settings;
+	}
+
+	/**
+	 * @return value of the parameter for the key, or for all keys if not set for the key
+	 */
+	static String parameter(Function<String, String> parameters, Object key, String name) {
+		String value = key == null ? null : parameters.apply(PARAMETER_PREFIX + key + "." + name);
+		return value != null ? value : parameters.apply(PARAMETER_PREFIX + name);
+	}
+
+	private static int intParameter(Function<String, String> parameters, Object key, String name, int def) {
+		String value = parameter(parameters, key, name);
+		if (value == null)
+			return def;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new WicketRuntimeException("Invalid connection pool " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Sets the connection provider properties for these settings. Properties set later
+	 * in the configuration take precedence.
+	 * @param config configuration to update
+	 */
+	public void configure(Configuration config) {
+		config.setProperty(AvailableSettings.CONNECTION_PROVIDER, MeteredConnectionProvider.class.getName());
+		config.setProperty(MeteredConnectionProvider.DELEGATE_PROVIDER, type.getProviderClass());
+		switch (type) {
+		case C3P0:
+			config
+				.setProperty("hibernate.c3p0.max_size", String.valueOf(maxSize))
+				.setProperty("hibernate.c3p0.timeout", String.valueOf(idleTimeout))
+				.setProperty("hibernate.c3p0.idle_test_period", String.valueOf(testPeriod));
+			if (minIdle >= 0)
+				config.setProperty("hibernate.c3p0.min_size", String.valueOf(minIdle));
+			if (acquireTimeout > 0)
+				config.setProperty("hibernate.c3p0.checkoutTimeout", String.valueOf(acquireTimeout));
+			break;
+		case HIKARI:
+			config
+				.setProperty("hibernate.hikari.maximumPoolSize", String.valueOf(maxSize))
+				.setProperty("hibernate.hikari.idleTimeout", String.valueOf(idleTimeout * 1000L));
+			if (minIdle >= 0)
+				config.setProperty("hibernate.hikari.minimumIdle", String.valueOf(minIdle));
+			if (acquireTimeout > 0)
+				config.setProperty("hibernate.hikari.connectionTimeout", String.valueOf(acquireTimeout));
+			break;
+		}
+	}
+
+	/** @return pool to use */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @param type pool to use
+	 * @return this, for chaining
+	 */
+	public ConnectionPoolSettings setType(Type type) {
+		this.type = type;
+		return this;
+	}
+
+	/** @return maximum number of connections */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param maxSize maximum number of connections
+	 * @return this, for chaining
+	 */
+	public ConnectionPoolSettings setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	/** @return number of idle connections kept open, or -1 for the pool's default */
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * @param minIdle number of idle connections kept open, or -1 for the pool's default
+	 * @return this, for chaining
+	 */
+	public ConnectionPoolSettings setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+		return this;
+	}
+
+	/** @return seconds after which idle connections above the minimum are closed */
+	public int getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * @param idleTimeout seconds after which idle connections above the minimum are closed
+	 * @return this, for chaining
+	 */
+	public ConnectionPoolSettings setIdleTimeout(int idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+
+	/** @return seconds between tests of idle connections, for C3P0 */
+	public int getTestPeriod() {
+		return testPeriod;
+	}
+
+	/**
+	 * @param testPeriod seconds between tests of idle connections, for C3P0
+	 * @return this, for chaining
+	 */
+	public ConnectionPoolSettings setTestPeriod(int testPeriod) {
+		this.testPeriod = testPeriod;
+		return this;
+	}
+
+	/** @return milliseconds to wait for a connection before failing, or 0 for the pool's default */
+	public long getAcquireTimeout() {
+		return acquireTimeout;
+	}
+
+	/**
+	 * @param acquireTimeout milliseconds to wait for a connection before failing,
+	 * or 0 for the pool's default
+	 * @return this, for chaining
+	 */
+	public ConnectionPoolSettings setAcquireTimeout(long acquireTimeout) {
+		this.acquireTimeout = acquireTimeout;
+		return this;
+	}
+}
@@ -19,15 +19,33 @@
 
 package net.databinder.hib;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.wicket.Application;
+import org.apache.wicket.ThreadContext;
 import org.apache.wicket.WicketRuntimeException;
 import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import net.databinder.DataApplicationBase;
 import net.databinder.components.hib.DataBrowser;
+import net.databinder.components.hib.SearchCancellationListener;
 
 /**
  * Optional Databinder base Application class for configuration and session management. 
@@ -36,24 +54,32 @@ import net.databinder.components.hib.DataBrowser;
  */
 public abstract class DataApplication extends DataApplicationBase implements HibernateApplication {
 	
+	private static final Logger log = LoggerFactory.getLogger(DataApplication.class);
+	
 	/** App-wide session factories */
-	private HashMap<Object, SessionFactory> hibernateSessionFactories = new HashMap<>();
+	private final SessionFactoryRegistry hibernateSessionFactories = new SessionFactoryRegistry(key -> {
+		if (!isLazySessionFactoryKey(key))
+			return null;
+		buildHibernateSessionFactory(key);
+		return this.hibernateSessionFactories.get(key);
+	});
 	
 	private DataRequestCycleListener dataRequestCycleListener;
 	
 	
 	/**
-	 * Initializes a default Hibernate session factory and mounts a page for
+	 * Initializes the Hibernate session factories and mounts a page for
 	 * the data browser. This is called automatically during start-up. Applications 
 	 * with one session factory will not normally need to override this method; 
 	 * see related methods to override specific tasks.
-	 * @see #buildHibernateSessionFactory(Object) aoe
+	 * @see #buildHibernateSessionFactories()
 	 * @see #mountDataBrowser() 
 	 */
 	protected void dataInit() {
-		buildHibernateSessionFactory(null);
+		buildHibernateSessionFactories();
 		dataRequestCycleListener = newDataRequestCycleListener();
 		getRequestCycleListeners().add(dataRequestCycleListener);
+		getRequestCycleListeners().add(new SearchCancellationListener());
 		if (isDataBrowserAllowed())
 			mountDataBrowser();
 	}
@@ -78,6 +104,105 @@ public abstract class DataApplication extends DataApplicationBase implements Hib
 		mountPage("/dbrowse", BmarkDataBrowser.class);
 	}
 
+	/**
+	 * Override to build session factories for several keys at start-up.
+	 * @return keys of the factories built by init; only the default (null) key by default
+	 * @see #getSessionFactoryBuildThreads()
+	 */
+	protected Collection<?> getHibernateSessionFactoryKeys() {
+		return Collections.singletonList(null);
+	}
+
+	/**
+	 * Override to build the start-up session factories in parallel. Each factory's
+	 * configuration methods are then called on a pool thread, with this application
+	 * attached to the thread, and must not depend on the order of the keys.
+	 * @return maximum number of factories to build at once; 1 by default
+	 */
+	protected int getSessionFactoryBuildThreads() {
+		return 1;
+	}
+
+	/**
+	 * Called by init to build a session factory for each of the start-up keys, in parallel
+	 * if more than one build thread is allowed. If any factory fails to build, the builds
+	 * not yet started are cancelled, any factories already built are closed, and a
+	 * WicketRuntimeException reporting every failure is thrown.
+	 * @see #getHibernateSessionFactoryKeys()
+	 * @see #buildHibernateSessionFactory(Object)
+	 */
+	protected void buildHibernateSessionFactories() {
+		List<Object> keys = new ArrayList<>(getHibernateSessionFactoryKeys());
+		int threads = Math.min(getSessionFactoryBuildThreads(), keys.size());
+		long start = System.nanoTime();
+		if (threads <= 1) {
+			for (Object key : keys)
+				buildHibernateSessionFactory(key);
+			return;
+		}
+		AtomicInteger count = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "databinder-sf-build-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		Map<Future<Void>, Object> pending = new LinkedHashMap<>();
+		Map<Object, Throwable> failures = new LinkedHashMap<>();
+		try {
+			ExecutorCompletionService<Void> builds = new ExecutorCompletionService<>(executor);
+			for (Object key : keys)
+				pending.put(builds.submit(() -> {
+					ThreadContext.setApplication(this);
+					try {
+						buildHibernateSessionFactory(key);
+					} finally {
+						ThreadContext.detach();
+					}
+					return null;
+				}), key);
+			while (!pending.isEmpty()) {
+				Future<Void> done = builds.take();
+				Object key = pending.remove(done);
+				try {
+					done.get();
+				} catch (ExecutionException e) {
+					failures.put(key, e.getCause());
+					if (failures.size() == 1)
+						// fail fast: cancel queued builds and interrupt running ones
+						for (Future<Void> f : pending.keySet())
+							f.cancel(true);
+				} catch (CancellationException e) {
+					// cancelled after an earlier failure
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failures.put("(interrupted)", e);
+		} finally {
+			executor.shutdownNow();
+		}
+		if (!failures.isEmpty()) {
+			try {
+				// builds ignoring interruption could otherwise register factories after closing
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			hibernateSessionFactories.close();
+			StringBuilder msg = new StringBuilder("Unable to build Hibernate session factories:");
+			for (Map.Entry<Object, Throwable> failure : failures.entrySet())
+				msg.append("\n  key ").append(failure.getKey()).append(": ").append(failure.getValue());
+			WicketRuntimeException ex = new WicketRuntimeException(msg.toString(),
+					failures.values().iterator().next());
+			for (Throwable t : failures.values())
+				if (t != ex.getCause())
+					ex.addSuppressed(t);
+			throw ex;
+		}
+		log.info("Built {} session factories on {} threads in {} ms", keys.size(), threads,
+				(System.nanoTime() - start) / 1000000);
+	}
+
 	/**
 	 * Called by init to create Hibernate session factory and load a configuration. Passes
 	 * an empty new Configuration to buildHibernateSessionFactory(key, config) by 
@@ -90,16 +215,50 @@ public abstract class DataApplication extends DataApplicationBase implements Hib
 	
 	/**
 	 * Builds and a session factory with the given configuration. Passes config
-	 * through configureHibernate methods.
+	 * through configureHibernate methods and any configured connection pool settings,
+	 * then registers the named queries
+	 * from addNamedQueries so that errors in them fail start-up.
 	 * @param key session factory key; the default key is null
 	 * @param config annotation conifuration
 	 * @see #configureHibernateEssentials(Configuration)
+	 * @see #getConnectionPoolSettings(Object)
 	 * @see #configureHibernate(Configuration, Object) 
 	 */
 	public final void buildHibernateSessionFactory(Object key, Configuration config) {
+		long start = System.nanoTime();
 		configureHibernateEssentials(config);
 		configureHibernate(config, key);
-		setHibernateSessionFactory(key, config.buildSessionFactory());
+		if (config.getProperty(AvailableSettings.DATASOURCE) == null) {
+			ConnectionPoolSettings pool = getConnectionPoolSettings(key);
+			if (pool != null)
+				pool.configure(config);
+		}
+		long configured = System.nanoTime();
+		SessionFactory sf = config.buildSessionFactory();
+		long built = System.nanoTime();
+		try {
+			Map<String, String> queries = new LinkedHashMap<>();
+			addNamedQueries(queries, key);
+			if (!queries.isEmpty())
+				NamedQueries.register(sf, queries);
+		} catch (RuntimeException e) {
+			sf.close();
+			throw e;
+		}
+		long end = System.nanoTime();
+		setHibernateSessionFactory(key, sf);
+		log.info("Built session factory {} in {} ms (configure {} ms, build {} ms, named queries {} ms)",
+				key, (end - start) / 1000000, (configured - start) / 1000000,
+				(built - configured) / 1000000, (end - built) / 1000000);
+	}
+
+	/**
+	 * Override to add HQL queries, by name, to be compiled at start-up and used through
+	 * {@link net.databinder.models.hib.NamedQueryBuilder}. Does nothing by default.
+	 * @param queries map to put query strings into, by name
+	 * @param key session factory key; the default key is null
+	 */
+	protected void addNamedQueries(Map<String, String> queries, Object key) {
 	}
 	
 	/**
@@ -129,19 +288,53 @@ public abstract class DataApplication extends DataApplicationBase implements Hib
 	 * but don't forget to call this super-implementation if you want its defaults.
 	 * When running in development the session factory is set for 
 	 * hbm2ddl auto-updating to create and add columns to tables 
-	 * as required. For deployment it is configured for C3P0 connection pooling.
+	 * as required. For deployment it is configured for C3P0 connection pooling,
+	 * measured by a {@link MeteredConnectionProvider}.
 	 * @param config used to build Hibernate session factory
+	 * @see #getConnectionPoolSettings(Object)
 	 */
 	protected	void configureHibernate(Configuration config) {
 			if (isUpdateHbm2ddlAuto())
 				config.setProperty("hibernate.hbm2ddl.auto", "update");
-			else {
-				config
-					.setProperty("hibernate.connection.provider_class", "org.hibernate.connection.C3P0ConnectionProvider")
-					.setProperty("hibernate.c3p0.max_size", "20")
-					.setProperty("hibernate.c3p0.timeout","3000")
-					.setProperty("hibernate.c3p0.idle_test_period", "300");
-			}
+			else
+				new ConnectionPoolSettings().configure(config);
+	}
+
+	/**
+	 * Returns the connection pool settings for a session factory, read from the
+	 * application's parameters. These are applied after configureHibernate, unless it
+	 * set a <code>hibernate.connection.datasource</code>. When running in development
+	 * (hbm2ddl auto-updating), Hibernate's own connection pool is used unless a pool
+	 * type parameter is set. Override to size pools otherwise.
+	 * @param key session factory key; the default key is null
+	 * @return settings for the factory's pool, or null to leave pooling as configured
+	 * @see ConnectionPoolSettings#fromParameters(java.util.function.Function, Object)
+	 */
+	protected ConnectionPoolSettings getConnectionPoolSettings(Object key) {
+		if (isUpdateHbm2ddlAuto() && ConnectionPoolSettings.parameter(this::getConfigurationParameter, key, "type") == null)
+			return null;
+		return ConnectionPoolSettings.fromParameters(this::getConfigurationParameter, key);
+	}
+
+	/**
+	 * Looks up a Wicket filter init parameter, then a servlet context parameter.
+	 * @param name parameter name
+	 * @return parameter value, or null if not set
+	 */
+	protected String getConfigurationParameter(String name) {
+		if (getWicketFilter() == null)
+			return null;
+		String value = getInitParameter(name);
+		return value != null ? value : getServletContext().getInitParameter(name);
+	}
+
+	/**
+	 * @param key session factory key; the default key is null
+	 * @return connection provider measuring the factory's pool, or null if it is not measured
+	 * @see ConnectionPoolSettings
+	 */
+	public MeteredConnectionProvider getConnectionPoolMetrics(Object key) {
+		return MeteredConnectionProvider.get(getHibernateSessionFactory(key));
 	}
 
 	/**
@@ -155,6 +348,24 @@ public abstract class DataApplication extends DataApplicationBase implements Hib
 		return isDevelopment();
 	}
 
+	/**
+	 * Override to build session factories for keys, such as those of tenants, on their
+	 * first use rather than at start-up. Factories for these keys are built by
+	 * {@link #buildHibernateSessionFactory(Object)} and may be closed when idle, as
+	 * configured in the registry. Returns false by default.
+	 * @param key session factory key, not null
+	 * @return true if a factory should be built for the key when first needed
+	 * @see #getSessionFactoryRegistry()
+	 */
+	protected boolean isLazySessionFactoryKey(Object key) {
+		return false;
+	}
+
+	/** @return registry of the application's session factories, to configure eviction */
+	public SessionFactoryRegistry getSessionFactoryRegistry() {
+		return hibernateSessionFactories;
+	}
+
 	/**
 	 * @param key object, or null for the default factory
 	 * @return the retained session factory
@@ -171,6 +382,8 @@ public abstract class DataApplication extends DataApplicationBase implements Hib
 	}
 	
 	/**
+	 * Retains a session factory. Factories set while the registry is building their key
+	 * may be closed when idle; others are kept until the application is destroyed.
 	 * @param key object, or null for the default factory
 	 * @param sf session factory to retain
 	 */
@@ -178,6 +391,13 @@ public abstract class DataApplication extends DataApplicationBase implements Hib
 		hibernateSessionFactories.put(key, sf);
 	}
 	
+	/** Closes all session factories. */
+	@Override
+	protected void onDestroy() {
+		hibernateSessionFactories.close();
+		super.onDestroy();
+	}
+	
 	/**
 	 * Returns true if development mode is enabled. Override for other behavior.
 	 * @return true if the Data Browser page should be enabled
@@ -23,11 +23,22 @@
 
 package net.databinder.hib;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
+import javax.transaction.Synchronization;
+
+import org.apache.wicket.Application;
+import org.hibernate.FlushMode;
+import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.context.internal.ManagedSessionContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,20 +56,96 @@ public class DataRequestCycle implements HibernateSessionStarter {
 
 	private static final Logger log = LoggerFactory.getLogger(DataRequestCycle.class);
 	
+	/** Begin transactions when their first statement is prepared. */
+	private boolean lazyTransactions = false;
+	/** Commit clean transactions after each request handler. */
+	private boolean endCleanTransactions = false;
+	/** Keys of session factories acquired from the application's registry for this request. */
+	private HashSet<Object> acquired = new HashSet<>();
+	/** Inspectors of sessions with lazy transactions, by factory key. */
+	private Map<Object, LazyTransactionInspector> inspectors = new HashMap<>();
+	
+	/** @return true if transactions begin when their first statement is prepared */
+	public boolean isLazyTransactions() {
+		return lazyTransactions;
+	}
+
+	/**
+	 * By default a transaction is begun as soon as a session is opened, which acquires
+	 * a pooled connection that is held until the end of the request. Lazy transactions
+	 * begin only when the session prepares its first statement, so that requests that
+	 * do not query, or only query from caches, do not hold a connection. Code committing
+	 * a transaction must then begin it with {@link Databinder#beginTransaction(Object)} if
+	 * it is not active, and leave the next one to begin lazily, as DataFormBase does.
+	 * @param lazyTransactions true to begin transactions when first needed
+	 * @return this, for chaining
+	 */
+	public DataRequestCycle setLazyTransactions(boolean lazyTransactions) {
+		this.lazyTransactions = lazyTransactions;
+		return this;
+	}
+
+	/** @return true if clean transactions are ended after each request handler */
+	public boolean isEndCleanTransactions() {
+		return endCleanTransactions;
+	}
+
+	/**
+	 * With lazy transactions, end the transactions of sessions that have only selected
+	 * and have no unflushed changes after each request handler has executed. Since they
+	 * wrote nothing they are committed, which unlike a rollback leaves the session's
+	 * entities attached. Their connections are released before the response is written;
+	 * statements run afterwards, such as to initialize lazy associations, begin a new
+	 * transaction.
+	 * @param endCleanTransactions true to end clean transactions after each handler
+	 * @return this, for chaining
+	 * @see #setLazyTransactions(boolean)
+	 */
+	public DataRequestCycle setEndCleanTransactions(boolean endCleanTransactions) {
+		this.endCleanTransactions = endCleanTransactions;
+		return this;
+	}
+	
 
 	/** Roll back active transactions and close session. */
 	protected void closeSession(Object key) {
 		Session sess = Databinder.getHibernateSession(key);
 		
-		if (sess.isOpen())
-			try {
-				if (sess.getTransaction().isActive()) {
-					log.debug("Rolling back uncomitted transaction.");
-					sess.getTransaction().rollback();
+		try {
+			if (sess.isOpen())
+				try {
+					if (sess.getTransaction().isActive()) {
+						log.debug("Rolling back uncomitted transaction.");
+						sess.getTransaction().rollback();
+					}
+				} finally {
+					sess.close();
 				}
-			} finally {
-				sess.close();
+		} finally {
+			releaseSessionFactory(key);
+		}
+	}
+
+	/**
+	 * @return session factory for the key, acquired from the application's registry
+	 * if it is a DataApplication so that it is not closed while the session is open
+	 */
+	private SessionFactory acquireSessionFactory(Object key) {
+		Application app = Application.exists() ? Application.get() : null;
+		if (app instanceof DataApplication && !acquired.contains(key)) {
+			SessionFactory sf = ((DataApplication) app).getSessionFactoryRegistry().acquire(key);
+			if (sf != null) {
+				acquired.add(key);
+				return sf;
 			}
+		}
+		return Databinder.getHibernateSessionFactory(key);
+	}
+
+	/** Releases the session factory for the key if it was acquired for this request. */
+	private void releaseSessionFactory(Object key) {
+		if (acquired.remove(key))
+			((DataApplication) Application.get()).getSessionFactoryRegistry().release(key);
 	}
 
 	/**
@@ -70,18 +157,106 @@ public class DataRequestCycle implements HibernateSessionStarter {
 	}
 	
 	/**
-	 * Open a session and begin a transaction for the keyed session factory.
+	 * Open a session and begin a transaction for the keyed session factory. If the request
+	 * was declared read-only, the session loads entities read-only and is flushed only
+	 * explicitly, and its transaction's connection is read-only.
 	 * @param key object, or null for the default factory
 	 * @return newly opened session
+	 * @see Databinder#setReadOnlyRequest()
 	 */
 	protected org.hibernate.Session openHibernateSession(Object key) {
-		org.hibernate.Session sess = Databinder.getHibernateSessionFactory(key).openSession();
-		sess.beginTransaction();
+		SessionFactory sf = acquireSessionFactory(key);
+		org.hibernate.Session sess;
+		if (lazyTransactions) {
+			LazyTransactionInspector inspector = new LazyTransactionInspector(
+					((SessionFactoryImplementor) sf).getSessionFactoryOptions().getStatementInspector());
+			sess = sf.withOptions().statementInspector(inspector).openSession();
+			inspector.session = sess;
+			inspectors.put(key, inspector);
+		} else
+			sess = sf.openSession();
+		if (Databinder.isReadOnlyRequest()) {
+			sess.setDefaultReadOnly(true);
+			sess.setHibernateFlushMode(FlushMode.MANUAL);
+		}
+		if (!lazyTransactions)
+			beginTransaction(sess);
 		ManagedSessionContext.bind(sess);
 		keys.add(key);
 		return sess;
 	}
 
+	/**
+	 * Begins a transaction for the session, with a read-only connection if the session is
+	 * read-only. A lazy transaction is taken to have written nothing until it runs a write.
+	 */
+	protected void beginTransaction(Session sess) {
+		sess.beginTransaction();
+		for (LazyTransactionInspector inspector : inspectors.values())
+			if (inspector.session == sess)
+				inspector.written = false;
+		if (sess.isDefaultReadOnly())
+			setConnectionReadOnly(sess);
+	}
+
+	/**
+	 * Begins a session's transaction when it prepares a statement outside of one, and
+	 * notes if the transaction runs any statement other than a query. Only statements
+	 * starting with <tt>select</tt> or <tt>with</tt> are taken for queries; anything
+	 * else, including <tt>{call}</tt> procedures that only read, is conservatively
+	 * counted as a write so that its transaction is left to the request's end.
+	 */
+	private class LazyTransactionInspector implements StatementInspector {
+		private static final long serialVersionUID = 1L;
+		private final StatementInspector delegate;
+		Session session;
+		boolean written;
+
+		LazyTransactionInspector(StatementInspector delegate) {
+			this.delegate = delegate;
+		}
+
+		public String inspect(String sql) {
+			if (session != null && !session.getTransaction().isActive()) {
+				log.debug("Beginning transaction for first statement");
+				beginTransaction(session);
+			}
+			if (delegate != null)
+				sql = delegate.inspect(sql);
+			if (!written && !isQuery(sql.trim()))
+				written = true;
+			return sql;
+		}
+
+		private boolean isQuery(String sql) {
+			return sql.regionMatches(true, 0, "select", 0, 6) || sql.regionMatches(true, 0, "with", 0, 4);
+		}
+	}
+
+	/**
+	 * Sets the connection of the session's transaction read-only, and back to read-write
+	 * when the transaction completes, before the connection is released to the pool.
+	 * Drivers that do not support the hint are left as they are.
+	 */
+	protected void setConnectionReadOnly(final Session sess) {
+		try {
+			sess.doWork(connection -> connection.setReadOnly(true));
+		} catch (HibernateException e) {
+			log.debug("Read-only connection not supported", e);
+			return;
+		}
+		sess.getTransaction().registerSynchronization(new Synchronization() {
+			public void beforeCompletion() { }
+			public void afterCompletion(int status) {
+				try {
+					sess.doWork(connection -> connection.setReadOnly(false));
+				} catch (HibernateException e) {
+					log.warn("Unable to reset read-only connection", e);
+				}
+			}
+		});
+	}
+
 	/**
 	 * Closes all Hibernate sessions opened for this request. If a transaction has
 	 * not been committed, it will be rolled back before closing the session.
@@ -95,6 +270,39 @@ public class DataRequestCycle implements HibernateSessionStarter {
 				ManagedSessionContext.unbind(sf);
 			}
 		}
+		for (Object key : new ArrayList<>(acquired))
+			releaseSessionFactory(key);
+		inspectors.clear();
+	}
+	
+	/** Commits clean lazy transactions, if they are ended after each handler. */
+	protected void onRequestHandlerExecuted() {
+		if (!endCleanTransactions)
+			return;
+		for (Map.Entry<Object, LazyTransactionInspector> entry : inspectors.entrySet()) {
+			SessionFactory sf = Databinder.getHibernateSessionFactory(entry.getKey());
+			Session sess = entry.getValue().session;
+			if (!ManagedSessionContext.hasBind(sf) || sf.getCurrentSession() != sess)
+				continue;
+			if (sess.isOpen() && sess.getTransaction().isActive() && !entry.getValue().written && isClean(sess)) {
+				log.debug("Ending clean transaction after request handler.");
+				sess.getTransaction().commit();
+			}
+		}
+	}
+
+	/**
+	 * A read-only session, or one managing no entities, is clean without a check. Otherwise
+	 * the session's dirty check compares every managed entity with its loaded state, which
+	 * can cost more than holding the connection for a large persistence context.
+	 * @return true if the session has no changes to flush
+	 */
+	protected boolean isClean(Session sess) {
+		if (sess.isDefaultReadOnly() && sess.getHibernateFlushMode() == FlushMode.MANUAL)
+			return true;
+		if (((SessionImplementor) sess).getPersistenceContext().getNumberOfManagedEntities() == 0)
+			return true;
+		return !sess.isDirty();
 	}
 	
 	protected void onBeginRequest() {
@@ -24,6 +24,9 @@
 package net.databinder.hib;
 
 import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.core.request.handler.BookmarkablePageRequestHandler;
+import org.apache.wicket.core.request.handler.IPageClassRequestHandler;
+import org.apache.wicket.core.request.handler.RenderPageRequestHandler;
 import org.apache.wicket.request.IRequestHandler;
 import org.apache.wicket.request.cycle.AbstractRequestCycleListener;
 import org.apache.wicket.request.cycle.RequestCycle;
@@ -47,6 +50,48 @@ public class DataRequestCycleListener extends AbstractRequestCycleListener imple
 		private static final long serialVersionUID = 1L;
 	}
 
+	private boolean lazyTransactions = false, endCleanTransactions = false;
+
+	/** @return true if transactions begin when their first statement is prepared */
+	public boolean isLazyTransactions() {
+		return lazyTransactions;
+	}
+
+	/**
+	 * Begin transactions, and acquire their connections, only when a session prepares its
+	 * first statement.
+	 * @param lazyTransactions true to begin transactions when first needed
+	 * @return this, for chaining
+	 * @see DataRequestCycle#setLazyTransactions(boolean)
+	 */
+	public DataRequestCycleListener setLazyTransactions(boolean lazyTransactions) {
+		this.lazyTransactions = lazyTransactions;
+		return this;
+	}
+
+	/** @return true if clean transactions are ended after each request handler */
+	public boolean isEndCleanTransactions() {
+		return endCleanTransactions;
+	}
+
+	/**
+	 * With lazy transactions, release connections after each request handler by committing
+	 * transactions that have only selected and have no unflushed changes.
+	 * @param endCleanTransactions true to end clean transactions after each handler
+	 * @return this, for chaining
+	 * @see DataRequestCycle#setEndCleanTransactions(boolean)
+	 */
+	public DataRequestCycleListener setEndCleanTransactions(boolean endCleanTransactions) {
+		this.endCleanTransactions = endCleanTransactions;
+		return this;
+	}
+
+	/** @return new data request cycle for a request, with this listener's options */
+	protected DataRequestCycle newDataRequestCycle() {
+		return new DataRequestCycle().setLazyTransactions(lazyTransactions)
+				.setEndCleanTransactions(endCleanTransactions);
+	}
+
 
 	/**
 	 * Called by DataStaticService when a session is needed and does not already exist. Opens a new thread-bound
@@ -56,12 +101,46 @@ public class DataRequestCycleListener extends AbstractRequestCycleListener imple
 		RequestCycle cycle = RequestCycle.get();
 		DataRequestCycle dataRequestCycle = cycle.getMetaData(dataRequestCycleKey);
 		if (dataRequestCycle == null) {
-			dataRequestCycle = new DataRequestCycle();
+			dataRequestCycle = newDataRequestCycle();
 			cycle.setMetaData(dataRequestCycleKey, dataRequestCycle);
 		}
 		dataRequestCycle.dataSessionRequested(key);
 	}
 
+	/**
+	 * Begins the transaction through the request's DataRequestCycle, if it opened the session.
+	 */
+	@Override
+	public void beginTransaction(Object key) {
+		DataRequestCycle dataRequestCycle = getDataRequestCycle(RequestCycle.get());
+		if (dataRequestCycle != null)
+			dataRequestCycle.beginTransaction(Databinder.getHibernateSession(key));
+		else
+			HibernateSessionStarter.super.beginTransaction(key);
+	}
+
+	/**
+	 * Declares requests rendering a page annotated with {@link ReadOnlyRequest} read-only,
+	 * before any session is opened for them.
+	 */
+	@Override
+	public void onRequestHandlerResolved(RequestCycle cycle, IRequestHandler handler) {
+		if ((handler instanceof RenderPageRequestHandler || handler instanceof BookmarkablePageRequestHandler)
+				&& ((IPageClassRequestHandler) handler).getPageClass().isAnnotationPresent(ReadOnlyRequest.class))
+			Databinder.setReadOnlyRequest();
+	}
+
+	/**
+	 * Ends clean transactions if so configured.
+	 */
+	@Override
+	public void onRequestHandlerExecuted(RequestCycle cycle, IRequestHandler handler) {
+		DataRequestCycle dataRequestCycle = getDataRequestCycle(cycle);
+		if (dataRequestCycle != null) {
+			dataRequestCycle.onRequestHandlerExecuted();
+		}
+	}
+
 	/**
 	 * Closes all Hibernate sessions opened for this request. If a transaction has not been committed, it will be rolled
 	 * back before closing the session.
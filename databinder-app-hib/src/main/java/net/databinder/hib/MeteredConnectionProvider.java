@@ -0,0 +1,305 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.hib;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.sql.DataSource;
+
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.registry.classloading.spi.ClassLoaderService;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.ServiceRegistryAwareService;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.service.spi.Startable;
+import org.hibernate.service.spi.Stoppable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+
+/**
+ * Connection provider that delegates to a pool's provider, named by the
+ * {@link #DELEGATE_PROVIDER} property, and measures its use: connections in use, threads
+ * waiting for a connection, and a histogram of the time taken to acquire connections.
+ * Idle and total connections are read from the pool when it is C3P0 or HikariCP.
+ * @see ConnectionPoolSettings
+ * @see #get(SessionFactory)
+ */
+public class MeteredConnectionProvider implements ConnectionProvider, Configurable, ServiceRegistryAwareService,
+		Startable, Stoppable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger log = LoggerFactory.getLogger(MeteredConnectionProvider.class);
+
+	/** Property naming the class of the connection provider to measure. */
+	public static final String DELEGATE_PROVIDER = "databinder.pool.provider";
+
+	private ServiceRegistryImplementor serviceRegistry;
+	private ConnectionProvider delegate;
+
+	private final AtomicInteger active = new AtomicInteger(), waiting = new AtomicInteger();
+	private final AtomicLong failures = new AtomicLong();
+	private final Histogram acquireTimes = new Histogram();
+
+	/**
+	 * @param sf session factory
+	 * @return the factory's metered connection provider, or null if it does not use one
+	 */
+	public static MeteredConnectionProvider get(SessionFactory sf) {
+		ConnectionProvider cp = ((SessionFactoryImplementor) sf).getServiceRegistry()
+				.getService(ConnectionProvider.class);
+		return cp != null && cp.isUnwrappableAs(MeteredConnectionProvider.class)
+				? cp.unwrap(MeteredConnectionProvider.class) : null;
+	}
+
+	@Override
+	public void injectServices(ServiceRegistryImplementor serviceRegistry) {
+		this.serviceRegistry = serviceRegistry;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void configure(Map configurationValues) {
+		Object name = configurationValues.get(DELEGATE_PROVIDER);
+		if (name == null)
+			throw new HibernateException("Property " + DELEGATE_PROVIDER + " is not set");
+		try {
+			Class<?> type = serviceRegistry.getService(ClassLoaderService.class).classForName(name.toString());
+			delegate = (ConnectionProvider) type.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new HibernateException("Unable to instantiate connection provider " + name, e);
+		}
+		if (delegate instanceof ServiceRegistryAwareService)
+			((ServiceRegistryAwareService) delegate).injectServices(serviceRegistry);
+		if (delegate instanceof Configurable)
+			((Configurable) delegate).configure(configurationValues);
+	}
+
+	@Override
+	public void start() {
+		if (delegate instanceof Startable)
+			((Startable) delegate).start();
+	}
+
+	@Override
+	public void stop() {
+		if (delegate instanceof Stoppable)
+			((Stoppable) delegate).stop();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		waiting.incrementAndGet();
+		long start = System.nanoTime();
+		Connection conn;
+		try {
+			conn = delegate.getConnection();
+		} catch (SQLException | RuntimeException e) {
+			failures.incrementAndGet();
+			throw e;
+		} finally {
+			waiting.decrementAndGet();
+		}
+		acquireTimes.record(System.nanoTime() - start);
+		active.incrementAndGet();
+		return conn;
+	}
+
+	@Override
+	public void closeConnection(Connection conn) throws SQLException {
+		active.decrementAndGet();
+		delegate.closeConnection(conn);
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return delegate.supportsAggressiveRelease();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public boolean isUnwrappableAs(Class unwrapType) {
+		return unwrapType.isInstance(this) || delegate.isUnwrappableAs(unwrapType);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T unwrap(Class<T> unwrapType) {
+		if (unwrapType.isInstance(this))
+			return (T) this;
+		if (delegate.isUnwrappableAs(unwrapType))
+			return delegate.unwrap(unwrapType);
+		throw new UnknownUnwrapTypeException(unwrapType);
+	}
+
+	/** @return provider of the measured pool */
+	public ConnectionProvider getDelegate() {
+		return delegate;
+	}
+
+	/** @return connections acquired and not yet released */
+	public int getActive() {
+		return active.get();
+	}
+
+	/** @return threads waiting to acquire a connection */
+	public int getWaiting() {
+		return waiting.get();
+	}
+
+	/** @return connection requests that failed, including those that timed out */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/** @return histogram of time taken to acquire connections */
+	public Histogram getAcquireTimes() {
+		return acquireTimes;
+	}
+
+	/** @return idle connections in the pool, or -1 if the pool does not report them */
+	public int getIdle() {
+		return poolGauge("getNumIdleConnectionsDefaultUser", "getIdleConnections");
+	}
+
+	/** @return open connections in the pool, or -1 if the pool does not report them */
+	public int getTotal() {
+		return poolGauge("getNumConnectionsDefaultUser", "getTotalConnections");
+	}
+
+	/**
+	 * Reads a gauge from the pool's data source: from C3P0's PooledDataSource,
+	 * or from HikariCP's pool bean, without a compile-time dependency on HikariCP.
+	 */
+	private int poolGauge(String c3p0Method, String hikariMethod) {
+		try {
+			if (!delegate.isUnwrappableAs(DataSource.class))
+				return -1;
+			DataSource ds = delegate.unwrap(DataSource.class);
+			if (ds instanceof PooledDataSource)
+				return (Integer) PooledDataSource.class.getMethod(c3p0Method).invoke(ds);
+			Method bean = ds.getClass().getMethod("getHikariPoolMXBean");
+			Object pool = bean.invoke(ds);
+			return pool == null ? -1 : (Integer) bean.getReturnType().getMethod(hikariMethod).invoke(pool);
+		} catch (NoSuchMethodException e) {
+			return -1;
+		} catch (Exception e) {
+			log.debug("Unable to read connection pool gauge", e);
+			return -1;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "active " + getActive() + ", idle " + getIdle() + ", waiting " + getWaiting()
+			+ ", failures " + getFailures() + ", acquire " + acquireTimes;
+	}
+
+	/**
+	 * Counts of durations in fixed millisecond buckets, safe for concurrent use.
+	 */
+	public static class Histogram {
+		/** Upper bounds of the buckets in milliseconds; a last bucket counts longer durations. */
+		private static final long[] BOUNDS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+		private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+		private final AtomicLong total = new AtomicLong(), max = new AtomicLong();
+
+		void record(long nanos) {
+			long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+			int i = 0;
+			while (i < BOUNDS.length && millis >= BOUNDS[i])
+				i++;
+			counts.incrementAndGet(i);
+			total.addAndGet(nanos);
+			max.accumulateAndGet(nanos, Math::max);
+		}
+
+		/** @return exclusive upper bounds of the buckets in milliseconds, except the last */
+		public long[] getBounds() {
+			return BOUNDS.clone();
+		}
+
+		/** @return count in each bucket, with one more element than the bounds */
+		public long[] getCounts() {
+			long[] c = new long[counts.length()];
+			for (int i = 0; i < c.length; i++)
+				c[i] = counts.get(i);
+			return c;
+		}
+
+		/** @return number of durations recorded */
+		public long getCount() {
+			long n = 0;
+			for (int i = 0; i < counts.length(); i++)
+				n += counts.get(i);
+			return n;
+		}
+
+		/** @return mean duration in milliseconds, or 0 if none was recorded */
+		public double getMeanMillis() {
+			long n = getCount();
+			return n == 0 ? 0 : total.get() / 1e6 / n;
+		}
+
+		/** @return longest duration in milliseconds */
+		public double getMaxMillis() {
+			return max.get() / 1e6;
+		}
+
+		/**
+		 * @param quantile between 0 and 1, such as 0.99
+		 * @return upper bound in milliseconds of the bucket containing the quantile, or
+		 * the longest duration if it is in the last bucket
+		 */
+		public double getQuantileMillis(double quantile) {
+			long[] c = getCounts();
+			long n = 0;
+			for (long x : c)
+				n += x;
+			long rank = (long) Math.ceil(quantile * n);
+			for (int i = 0; i < BOUNDS.length; i++) {
+				rank -= c[i];
+				if (rank <= 0)
+					return n == 0 ? 0 : BOUNDS[i];
+			}
+			return getMaxMillis();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count %d, mean %.2f ms, p99 < %.0f ms, max %.2f ms",
+					getCount(), getMeanMillis(), getQuantileMillis(0.99), getMaxMillis());
+		}
+	}
+}
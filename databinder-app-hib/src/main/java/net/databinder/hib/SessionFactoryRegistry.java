@@ -0,0 +1,310 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.databinder.hib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.wicket.WicketRuntimeException;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Session factories by key, safe for concurrent use. Factories may be registered directly
+ * or built on the first use of their key, without blocking the use of other keys. Built
+ * factories are closed when idle for longer than the idle timeout, or least recently used
+ * first when more than the maximum number are built. Registered factories and the default
+ * factory (null key) are never closed by the registry.
+ * <p>A factory is not closed while it is acquired, as it is for each session opened by
+ * DataRequestCycle, nor until it has not been requested for the minimum idle time; the
+ * maximum is exceeded until then. Sessions opened on a factory by other means should
+ * {@link #acquire(Object)} and {@link #release(Object)} it.</p>
+ * @see DataApplication#getSessionFactoryRegistry()
+ */
+public class SessionFactoryRegistry {
+
+	private static final Logger log = LoggerFactory.getLogger(SessionFactoryRegistry.class);
+
+	/** Builds the session factory for a key. */
+	public interface Builder {
+		/**
+		 * @param key session factory key, not null
+		 * @return new session factory, or null if there is none for the key
+		 */
+		SessionFactory build(Object key);
+	}
+
+	/** Stands in for the null key, which ConcurrentHashMap does not allow. */
+	private static final Object DEFAULT_KEY = new Object();
+
+	private final Map<Object, Entry> entries = new ConcurrentHashMap<>();
+	private final Builder builder;
+
+	private volatile int maxFactories = 0;
+	private volatile long idleTimeout = 0, minIdle = 60000;
+	private volatile long lastSweep = System.currentTimeMillis();
+
+	/** Session factory of a key, built or registered. */
+	private static class Entry {
+		final Object key;
+		/** held while building and closing */
+		final ReentrantLock lock = new ReentrantLock();
+		volatile SessionFactory sessionFactory;
+		volatile boolean registered;
+		volatile long lastUsed;
+		/** sessions open on the factory, acquired and not yet released */
+		final AtomicInteger sessions = new AtomicInteger();
+		Entry(Object key) {
+			this.key = key;
+		}
+	}
+
+	/** @param builder builds factories on first use of their keys, or null to only use registered ones */
+	public SessionFactoryRegistry(Builder builder) {
+		this.builder = builder;
+	}
+
+	/** @return maximum number of built factories, or 0 for no limit */
+	public int getMaxFactories() {
+		return maxFactories;
+	}
+
+	/**
+	 * @param maxFactories maximum number of built factories kept open, or 0 for no limit
+	 * @return this, for chaining
+	 */
+	public SessionFactoryRegistry setMaxFactories(int maxFactories) {
+		this.maxFactories = maxFactories;
+		return this;
+	}
+
+	/** @return milliseconds after which an unused built factory is closed, or 0 if never */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * @param idleTimeout milliseconds after which an unused built factory is closed, or 0 to
+	 * close factories only to stay within the maximum
+	 * @return this, for chaining
+	 */
+	public SessionFactoryRegistry setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+
+	/** @return milliseconds a factory must be unused before it can be closed */
+	public long getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * @param minIdle milliseconds a factory must be unused before it can be closed, longer
+	 * than any request; one minute by default
+	 * @return this, for chaining
+	 */
+	public SessionFactoryRegistry setMinIdle(long minIdle) {
+		this.minIdle = minIdle;
+		return this;
+	}
+
+	/**
+	 * Returns the factory for the key, building it if it is not open. Only the first
+	 * request for a key waits for its factory to be built.
+	 * @param key session factory key, or null for the default
+	 * @return session factory, or null if there is none for the key
+	 * @throws WicketRuntimeException if building the factory fails
+	 */
+	public SessionFactory get(Object key) {
+		long now = System.currentTimeMillis();
+		Entry entry = entries.get(mapKey(key));
+		if (entry == null) {
+			if (builder == null || key == null)
+				return null;
+			entry = entries.computeIfAbsent(mapKey(key), Entry::new);
+		}
+		entry.lastUsed = now;
+		SessionFactory sf = entry.sessionFactory;
+		if (sf == null && builder != null && key != null) {
+			entry.lock.lock();
+			try {
+				sf = entry.sessionFactory;
+				if (sf == null) {
+					long start = System.currentTimeMillis();
+					try {
+						sf = builder.build(key);
+					} catch (HibernateException e) {
+						throw new WicketRuntimeException("Unable to build session factory for key: " + key, e);
+					}
+					if (sf == null) {
+						entries.remove(mapKey(key), entry);
+						return null;
+					}
+					entry.sessionFactory = sf;
+					log.info("Built session factory for key {} in {} ms", key, System.currentTimeMillis() - start);
+				}
+			} finally {
+				entry.lock.unlock();
+			}
+			evict(now, entry);
+		} else if (idleTimeout > 0 && now - lastSweep > Math.min(idleTimeout, minIdle) && !entry.lock.isHeldByCurrentThread())
+			evict(now, entry);
+		return sf;
+	}
+
+	/**
+	 * Returns the factory for the key, as {@link #get(Object)} does, and keeps it from being
+	 * closed until released. Acquire a factory for as long as a session of it is open.
+	 * @param key session factory key, or null for the default
+	 * @return session factory, or null if there is none for the key
+	 * @see #release(Object)
+	 */
+	public SessionFactory acquire(Object key) {
+		while (true) {
+			SessionFactory sf = get(key);
+			Entry entry = entries.get(mapKey(key));
+			if (sf == null || entry == null)
+				return sf;
+			entry.sessions.incrementAndGet();
+			if (entry.sessionFactory == sf)
+				return sf;
+			// closed before it was acquired
+			entry.sessions.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Allows the factory for the key to be closed once it is not acquired by any session.
+	 * @param key session factory key, or null for the default
+	 */
+	public void release(Object key) {
+		Entry entry = entries.get(mapKey(key));
+		if (entry != null) {
+			entry.lastUsed = System.currentTimeMillis();
+			entry.sessions.updateAndGet(n -> n > 0 ? n - 1 : 0);
+		}
+	}
+
+	/**
+	 * Registers a factory for the key, which is not closed by the registry. A factory set
+	 * by the builder while building the key is treated as built instead.
+	 * @param key session factory key, or null for the default
+	 * @param sf session factory
+	 */
+	public void put(Object key, SessionFactory sf) {
+		Entry entry = entries.computeIfAbsent(mapKey(key), Entry::new);
+		entry.registered = !entry.lock.isHeldByCurrentThread();
+		entry.lastUsed = System.currentTimeMillis();
+		entry.sessionFactory = sf;
+	}
+
+	/** @return keys of open factories */
+	public List<Object> getKeys() {
+		List<Object> keys = new ArrayList<>();
+		for (Entry entry : entries.values())
+			if (entry.sessionFactory != null)
+				keys.add(entry.key == DEFAULT_KEY ? null : entry.key);
+		return keys;
+	}
+
+	/**
+	 * Closes built factories idle for longer than the idle timeout, then the least recently
+	 * used built factories over the maximum, among those idle for the minimum time and not
+	 * acquired.
+	 */
+	public void evict() {
+		evict(System.currentTimeMillis(), null);
+	}
+
+	/** @param returning entry about to be returned to a caller, not closed */
+	private void evict(long now, Entry returning) {
+		lastSweep = now;
+		List<Entry> built = new ArrayList<>();
+		for (Entry entry : entries.values())
+			if (entry.sessionFactory != null && !entry.registered && entry.key != DEFAULT_KEY)
+				built.add(entry);
+		int excess = maxFactories > 0 ? built.size() - maxFactories : 0;
+		if (excess <= 0 && idleTimeout <= 0)
+			return;
+		built.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+		for (Entry entry : built) {
+			long idle = now - entry.lastUsed;
+			if (idle < minIdle)
+				break;
+			if (entry == returning)
+				continue;
+			if (excess > 0 || (idleTimeout > 0 && idle > idleTimeout)) {
+				if (close(entry))
+					excess--;
+			}
+		}
+	}
+
+	/** Closes an entry's built factory unless it is being built, acquired, or was used meanwhile. */
+	private boolean close(Entry entry) {
+		SessionFactory sf;
+		if (!entry.lock.tryLock())
+			return false;
+		try {
+			sf = entry.sessionFactory;
+			if (sf == null || entry.registered || entry.sessions.get() > 0
+					|| System.currentTimeMillis() - entry.lastUsed < minIdle)
+				return false;
+			entry.sessionFactory = null;
+			if (entry.sessions.get() > 0) {
+				// acquired meanwhile, before it saw the factory cleared
+				entry.sessionFactory = sf;
+				return false;
+			}
+		} finally {
+			entry.lock.unlock();
+		}
+		log.info("Closing idle session factory for key {}", entry.key);
+		try {
+			sf.close();
+		} catch (HibernateException e) {
+			log.warn("Error closing session factory for key " + entry.key, e);
+		}
+		return true;
+	}
+
+	/** Closes all open factories, including registered ones. */
+	public void close() {
+		for (Entry entry : entries.values()) {
+			SessionFactory sf = entry.sessionFactory;
+			entry.sessionFactory = null;
+			if (sf != null && !sf.isClosed())
+				try {
+					sf.close();
+				} catch (HibernateException e) {
+					log.warn("Error closing session factory for key " + entry.key, e);
+				}
+		}
+	}
+
+	private static Object mapKey(Object key) {
+		return key == null ? DEFAULT_KEY : key;
+	}
+}
@@ -41,6 +41,7 @@ public class UserAdminPage<T extends DataUser> extends UserAdminPageBase<T> {
 			@Override
 			public void onSubmit() {
 				Databinder.getHibernateSession().delete(getUserForm().getModelObject());
+				Databinder.getHibernateSession().flush();
 				Databinder.getHibernateSession().getTransaction().commit();
 				form.clearPersistentObject();
 			}
@@ -239,7 +239,7 @@ public class DataForm<T> extends DataFormBase<T> {
 	@Override
 	protected void onValidate() {
 		if (version != null) {
-			Serializable currentVersion = getPersistentObjectModel().getVersion();
+			Serializable currentVersion = getPersistentObjectModel().loadVersion();
 			if (!version.equals(currentVersion))
 				error(getString("version.mismatch", null)); // report error
 				// do not update version number as old data still appears in form
@@ -49,10 +49,13 @@ public class DataFormBase<T> extends Form<T> {
 		try {
 			if (!hasError()) {
 				Session session = Databinder.getHibernateSession(factoryKey);
+				if (!session.getTransaction().isActive())
+					Databinder.beginTransaction(factoryKey);	// lazy transaction without statements
 				session.flush(); // needed for conv. sessions, harmless otherwise
 				onBeforeCommit();
 				session.getTransaction().commit();
-				session.beginTransaction();
+				if (!Databinder.isLazyTransactions())
+					Databinder.beginTransaction(factoryKey);
 				return true;
 			}
 		} catch (StaleObjectStateException e) {
@@ -0,0 +1,184 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.components.hib;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
+import org.apache.wicket.core.request.handler.IPageRequestHandler;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.IRequestParameters;
+import org.apache.wicket.request.cycle.AbstractRequestCycleListener;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.handler.EmptyRequestHandler;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+
+/**
+ * Cancels searches superseded by a later search from the same field. {@link SearchPanel}
+ * tags each search request with a sequence number. When a request arrives, before it waits
+ * for the page lock, any earlier search from the same field that is still running has its
+ * query cancelled through {@link Session#cancelQuery()}; the earlier request then renders
+ * nothing. Requests that are already stale when they obtain the page lock are not processed.
+ * Add to the application's request cycle listeners; DataApplication does so by default.
+ */
+public class SearchCancellationListener extends AbstractRequestCycleListener {
+
+	static final String SEQUENCE_PARAMETER = "searchSeq", KEY_PARAMETER = "searchKey";
+
+	private static final MetaDataKey<Searches> SEARCHES = new MetaDataKey<Searches>() {
+		private static final long serialVersionUID = 1L;
+	};
+
+	private static final MetaDataKey<Search> CURRENT = new MetaDataKey<Search>() {
+		private static final long serialVersionUID = 1L;
+	};
+
+	/** Search requested in the current request cycle. */
+	private static class Search implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final String key;
+		final long sequence;
+		transient Session session;
+		Search(String key, long sequence) {
+			this.key = key;
+			this.sequence = sequence;
+		}
+	}
+
+	/** Latest and running searches of a Wicket session, by page and field. */
+	private static class Searches implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private transient Map<String, Long> latest;
+		private transient Map<String, Search> running;
+
+		synchronized void requested(Search search) {
+			if (latest == null) {
+				latest = new ConcurrentHashMap<>();
+				running = new ConcurrentHashMap<>();
+			}
+			Long last = latest.get(search.key);
+			if (last == null || last < search.sequence)
+				latest.put(search.key, search.sequence);
+			Search superseded = running.get(search.key);
+			if (superseded != null && superseded.sequence < search.sequence && superseded.session != null)
+				try {
+					superseded.session.cancelQuery();
+				} catch (HibernateException e) { }	// no query running
+		}
+
+		synchronized boolean isStale(Search search) {
+			Long last = latest == null ? null : latest.get(search.key);
+			return last != null && last > search.sequence;
+		}
+
+		synchronized void begin(Search search, Session session) {
+			search.session = session;
+			if (running != null)
+				running.put(search.key, search);
+		}
+
+		synchronized void end(Search search) {
+			if (running != null)
+				running.remove(search.key, search);
+			search.session = null;
+		}
+	}
+
+	/** Records a tagged search request, cancelling any superseded one still running. */
+	@Override
+	public void onRequestHandlerResolved(RequestCycle cycle, IRequestHandler handler) {
+		if (!(handler instanceof IPageRequestHandler) || !org.apache.wicket.Session.exists())
+			return;
+		IRequestParameters params = cycle.getRequest().getRequestParameters();
+		Long sequence = params.getParameterValue(SEQUENCE_PARAMETER).toOptionalLong();
+		String field = params.getParameterValue(KEY_PARAMETER).toOptionalString();
+		if (sequence == null || field == null)
+			return;
+		Search search = new Search(((IPageRequestHandler) handler).getPageId() + ":" + field, sequence);
+		cycle.setMetaData(CURRENT, search);
+		searches(true).requested(search);
+	}
+
+	/** Renders nothing for a search that failed because it was superseded. */
+	@Override
+	public IRequestHandler onException(RequestCycle cycle, Exception ex) {
+		Search search = cycle.getMetaData(CURRENT);
+		Searches searches = searches(false);
+		if (search != null && searches != null && searches.isStale(search))
+			return new EmptyRequestHandler();
+		return null;
+	}
+
+	@Override
+	public void onEndRequest(RequestCycle cycle) {
+		Search search = cycle.getMetaData(CURRENT);
+		Searches searches = searches(false);
+		if (search != null && searches != null)
+			searches.end(search);
+	}
+
+	/**
+	 * Tags Ajax requests with a search sequence number. Sequence numbers are taken from the
+	 * client's clock and increase strictly within a page.
+	 * @param attributes attributes of the search or clear behavior
+	 * @param field markup id of the search field
+	 */
+	static void tag(AjaxRequestAttributes attributes, String field) {
+		attributes.getDynamicExtraParameters().add(
+				"var s = Math.max(Date.now(), (window.databinderSearchSeq || 0) + 1);"
+				+ "window.databinderSearchSeq = s;"
+				+ "return {'" + SEQUENCE_PARAMETER + "': s, '" + KEY_PARAMETER + "': '" + field + "'};");
+	}
+
+	/**
+	 * Called by the search field's update behavior before it updates results.
+	 * @param session Hibernate session that will run the search queries
+	 * @return false if the current search request has been superseded and should not be processed
+	 */
+	static boolean beginSearch(Session session) {
+		RequestCycle cycle = RequestCycle.get();
+		Search search = cycle == null ? null : cycle.getMetaData(CURRENT);
+		Searches searches = searches(false);
+		if (search == null || searches == null)
+			return true;
+		if (searches.isStale(search))
+			return false;
+		searches.begin(search, session);
+		return true;
+	}
+
+	private static Searches searches(boolean create) {
+		if (!org.apache.wicket.Session.exists())
+			return null;
+		org.apache.wicket.Session session = org.apache.wicket.Session.get();
+		synchronized (session) {
+			Searches searches = session.getMetaData(SEARCHES);
+			if (searches == null && create) {
+				searches = new Searches();
+				session.setMetaData(SEARCHES, searches);
+			}
+			return searches;
+		}
+	}
+}
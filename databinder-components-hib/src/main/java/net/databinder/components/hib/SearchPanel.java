@@ -1,7 +1,9 @@
 package net.databinder.components.hib;
 
 import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.ajax.AjaxChannel;
 import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
 import org.apache.wicket.ajax.markup.html.AjaxLink;
 import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.form.TextField;
@@ -18,15 +20,23 @@ import org.hibernate.criterion.Restrictions;
 
 import net.databinder.components.AjaxCell;
 import net.databinder.components.AjaxOnKeyPausedUpdater;
+import net.databinder.hib.Databinder;
 import net.databinder.models.hib.CriteriaBuilder;
 import net.databinder.models.hib.PropertyQueryBinder;
 import net.databinder.models.hib.QueryBinder;
+import net.databinder.models.hib.SearchBackend;
+import net.databinder.models.hib.SearchBackends;
 
 /**
  * Panel for a "live" search field with a clear button. Instances of this class must
  * implement the onUpdate method to register external components for updating.
  * It is possible to override the search button text with the key "searchbutton.text"
  * The SearchPanel model maps to the text of the search.
+ * <p>Only the latest of several searches typed in quick succession is sent; a search
+ * still running when the field is cleared or searched again from elsewhere on the page is
+ * cancelled if {@link SearchCancellationListener} is registered.</p>
+ * <p>Searches answered by a {@link SearchBackend} are limited to its most relevant
+ * matches; see {@link #getSearchLimit()}.</p>
  * 
  * @param <T> the type of the search result
  * @author Nathan Hamblen
@@ -88,7 +98,8 @@ public abstract class SearchPanel<T> extends Panel {
 
 	/**
 	 * Adds a criterion that will match the current search string within (depending on the MatchMode)
-	 * any of the given properties. If the search is empty, no criterion is added.
+	 * any of the given properties. If the search is empty, no criterion is added. If a
+	 * {@link SearchBackend} indexes the entity, the criterion matches its results instead.
 	 * @param matchMode used against all properties
 	 * @param searchProperty one or more properties to be searched
 	 * @return builder to be used with list model or data provider
@@ -97,7 +108,7 @@ public abstract class SearchPanel<T> extends Panel {
 		return new CriteriaBuilder() {
 			public void build(final Criteria criteria) {
 				final String search = (String) getDefaultModelObject();
-				if (search != null) {
+				if (search != null && SearchBackends.restrict(criteria, search, getSearchLimit()) == null) {
 					final Disjunction d = Restrictions.disjunction();
 					for (final String prop : searchProperty) {
             d.add(Property.forName(prop).like(search, matchMode));
@@ -108,6 +119,24 @@ public abstract class SearchPanel<T> extends Panel {
 		};
 	}
 
+	/**
+	 * When a {@link SearchBackend} indexes the searched entity, the criteria built by
+	 * {@link #getCriteriaBuilder(MatchMode, String...)} match only this many of the
+	 * backend's results, the most relevant, passed to the query as identifiers. Counts
+	 * and pages of a backend search are therefore truncated at the limit, unlike those of
+	 * the <code>like</code> search used without a backend. Override to raise the limit for
+	 * larger result sets, bearing in mind that every identifier is a query parameter.
+	 * @return maximum number of matches taken from a search backend, 1000 by default
+	 */
+	protected int getSearchLimit() {
+		return 1000;
+	}
+
+	/** @return key of the session factory the search queries run against, null for the default */
+	protected Object getFactoryKey() {
+		return null;
+	}
+
 	/** @return search string bracketed by the % wildcard */
 	public String getSearch() {
 		return getDefaultModelObject() == null ? null : "%" + getDefaultModelObject() + "%";
@@ -136,7 +165,14 @@ public abstract class SearchPanel<T> extends Panel {
 			final AjaxLink<?> clearLink = new AjaxLink<Void>("clearLink") {
 				/** Clear field and register updates. */
 				@Override
+				protected void updateAjaxAttributes(final AjaxRequestAttributes attributes) {
+					super.updateAjaxAttributes(attributes);
+					SearchCancellationListener.tag(attributes, search.getMarkupId());
+				}
+				@Override
         public void onClick(final AjaxRequestTarget target) {
+					if (!SearchCancellationListener.beginSearch(Databinder.getHibernateSession(getFactoryKey())))
+						return;
 					resetSearchModelObject();
 					target.add(searchWrap);
 					target.add(clearWrap);
@@ -155,8 +191,17 @@ public abstract class SearchPanel<T> extends Panel {
 
 			// triggered when user pauses or tabs out
 			search.add(new AjaxOnKeyPausedUpdater() {
+				/** Drops searches queued behind a running one and tags the request for cancellation. */
+				@Override
+				protected void updateAjaxAttributes(final AjaxRequestAttributes attributes) {
+					super.updateAjaxAttributes(attributes);
+					attributes.setChannel(new AjaxChannel(search.getMarkupId(), AjaxChannel.Type.DROP));
+					SearchCancellationListener.tag(attributes, search.getMarkupId());
+				}
 				@Override
         protected void onUpdate(final AjaxRequestTarget target) {
+					if (!SearchCancellationListener.beginSearch(Databinder.getHibernateSession(getFactoryKey())))
+						return;
 					target.add(clearWrap);
 					SearchPanel.this.onUpdate(target);
 				}
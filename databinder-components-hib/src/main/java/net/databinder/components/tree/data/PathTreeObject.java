@@ -0,0 +1,38 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.components.tree.data;
+
+/**
+ * Tree node that stores its materialized path: the identifiers of its ancestors and
+ * itself, each followed by a slash, as in <code>/1/5/9/</code>. The path property
+ * should be mapped to an indexed column.
+ * 
+ * @see net.databinder.components.tree.hib.PathTree
+ * 
+ * @param <T> the type of the actual node object represented by this data tree object
+ */
+public interface PathTreeObject<T extends PathTreeObject<T>> extends DataTreeObject<T> {
+
+	/** @return the materialized path of this. */
+	String getPath();
+
+	/** Sets the materialized path of this. */
+	void setPath(String path);
+}
@@ -16,21 +16,33 @@
  */
 package net.databinder.components.tree.hib;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.HibernateProxyHelper;
+
 import net.databinder.components.tree.data.DataTreeObject;
-import net.databinder.models.hib.HibernateObjectModel;
+import net.databinder.hib.Databinder;
+import net.databinder.models.hib.EntityMetadata;
 
 /**
  * Expansion state for a tree whose node type is {@link DataTreeObject}.
  * <p>
- * Wraps each data tree object into a {@link HibernateObjectModel} before storing it.
- * This means that the operations of this class rely on {@link HibernateObjectModel#hashCode()} and
- * {@link HibernateObjectModel#equals(Object)}.
+ * Stores the identifier of each data tree object by root entity name, without loading
+ * it or wrapping it in a model. Numeric identifiers are kept in a sorted <code>long</code>
+ * array; others in a hash set.
  * 
  * @author ckuehne
  * @author svenmeier (based on FooExpansion in wicket examples)
@@ -38,10 +50,21 @@ import net.databinder.models.hib.HibernateObjectModel;
 public class DataTreeExpansion<T extends DataTreeObject<T>> implements Set<T>, Serializable {
 	private static final long serialVersionUID = 1L;
 
-	private Set<HibernateObjectModel<T>> objects = new HashSet<>();
+	private Map<String, Ids> objects = new HashMap<>();
 
 	private boolean inverse;
 
+	private Object factoryKey;
+
+	/** Expansion state for nodes of the default session factory. */
+	public DataTreeExpansion() {
+	}
+
+	/** @param factoryKey session factory key of the nodes */
+	public DataTreeExpansion(Object factoryKey) {
+		this.factoryKey = factoryKey;
+	}
+
 	/**
 	 * Expand all nodes.
 	 */
@@ -63,32 +86,115 @@ public class DataTreeExpansion<T extends DataTreeObject<T>> implements Set<T>, S
 	@Override
 	public boolean add(T dto) {
 		if (inverse) {
-			return objects.remove(modelOf(dto));
+			return remove(entityName(dto), identifier(dto));
 		} else {
-			return objects.add(modelOf(dto));
+			return add(entityName(dto), identifier(dto));
 		}
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public boolean remove(Object o) {
 
 		if (inverse) {
-			return objects.add(modelOf((T) o));
+			return add(entityName(o), identifier(o));
 		} else {
-			return objects.remove(modelOf((T) o));
+			return remove(entityName(o), identifier(o));
 		}
 	}
 
 	@Override
 	public boolean contains(Object o) {
-		@SuppressWarnings("unchecked")
-		HibernateObjectModel<T> dto = modelOf((T) o);
+		Ids ids = objects.get(entityName(o));
+		boolean contained = ids != null && ids.contains(identifier(o));
 
 		if (inverse) {
-			return !objects.contains(dto);
+			return !contained;
 		} else {
-			return objects.contains(dto);
+			return contained;
+		}
+	}
+
+	private boolean add(String entityName, Serializable id) {
+		Ids ids = objects.get(entityName);
+		if (ids == null)
+			objects.put(entityName, ids = new Ids());
+		return ids.add(id);
+	}
+
+	private boolean remove(String entityName, Serializable id) {
+		Ids ids = objects.get(entityName);
+		return ids != null && ids.remove(id);
+	}
+
+	private EntityPersister persister(Object o) {
+		return EntityMetadata.get(Databinder.getHibernateSessionFactory(factoryKey),
+				HibernateProxyHelper.getClassWithoutInitializingProxy(o)).getPersister();
+	}
+
+	private String entityName(Object o) {
+		return persister(o).getRootEntityName();
+	}
+
+	private Serializable identifier(Object o) {
+		if (o instanceof HibernateProxy)
+			return ((HibernateProxy) o).getHibernateLazyInitializer().getIdentifier();
+		Session sess = Databinder.getHibernateSession(factoryKey);
+		return persister(o).getIdentifier(o, (SharedSessionContractImplementor) sess);
+	}
+
+	/** Identifiers of one entity hierarchy. */
+	private static class Ids implements Serializable {
+		private static final long serialVersionUID = 1L;
+		/** sorted integral identifiers, valid up to size */
+		private long[] longs = new long[8];
+		private int size;
+		/** other identifiers, created when needed */
+		private Set<Serializable> others;
+
+		boolean contains(Serializable id) {
+			if (isLong(id))
+				return Arrays.binarySearch(longs, 0, size, ((Number) id).longValue()) >= 0;
+			return others != null && others.contains(id);
+		}
+
+		boolean add(Serializable id) {
+			if (!isLong(id)) {
+				if (others == null)
+					others = new HashSet<>();
+				return others.add(id);
+			}
+			int i = Arrays.binarySearch(longs, 0, size, ((Number) id).longValue());
+			if (i >= 0)
+				return false;
+			i = -i - 1;
+			if (size == longs.length)
+				longs = Arrays.copyOf(longs, size * 2);
+			System.arraycopy(longs, i, longs, i + 1, size - i);
+			longs[i] = ((Number) id).longValue();
+			size++;
+			return true;
+		}
+
+		boolean remove(Serializable id) {
+			if (!isLong(id))
+				return others != null && others.remove(id);
+			int i = Arrays.binarySearch(longs, 0, size, ((Number) id).longValue());
+			if (i < 0)
+				return false;
+			System.arraycopy(longs, i + 1, longs, i, size - i - 1);
+			size--;
+			return true;
+		}
+
+		private static boolean isLong(Serializable id) {
+			return id instanceof Long || id instanceof Integer || id instanceof Short;
+		}
+
+		/** Writes only the used part of the array. */
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			if (longs.length > size)
+				longs = Arrays.copyOf(longs, Math.max(size, 1));
+			out.defaultWriteObject();
 		}
 	}
 
@@ -141,10 +247,4 @@ public class DataTreeExpansion<T extends DataTreeObject<T>> implements Set<T>, S
 	public boolean removeAll(Collection<?> c) {
 		throw new UnsupportedOperationException();
 	}
-
-	private static <T extends DataTreeObject<T>> HibernateObjectModel<T> modelOf(
-			T persistentObject) {
-
-		return new HibernateObjectModel<>(persistentObject);
-	}
 }
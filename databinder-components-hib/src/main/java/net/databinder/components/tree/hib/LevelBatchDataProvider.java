@@ -0,0 +1,191 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.components.tree.hib;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+
+import net.databinder.components.tree.data.DataTreeObject;
+import net.databinder.hib.Databinder;
+import net.databinder.models.hib.EntityMetadata;
+import net.databinder.models.hib.HibernateObjectModel;
+
+/**
+ * Tree provider that prepares each level of nodes in batches. When the roots or the
+ * children of a node are returned, one fetch join initializes the children of all the
+ * group's nodes that are in the expansion set, if one is given, and one grouped query
+ * counts the children of the others, answering {@link #hasChildren(DataTreeObject)}
+ * without initializing their collections. The same is then done for all children of the
+ * expanded nodes, level by level.
+ * <p>
+ * Nodes are expected to map their parent and children as the properties <code>parent</code>
+ * and <code>children</code>; others may be set.
+ */
+public class LevelBatchDataProvider<T extends DataTreeObject<T>> extends DataProvider<T> {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Maximum number of nodes in one <code>in</code> list. */
+	private static final int BATCH_SIZE = 500;
+
+	private Class<T> nodeClass;
+	private String parentProperty = "parent";
+	private String childrenProperty = "children";
+	private Set<T> expansion;
+	private Object factoryKey;
+
+	/** Child counts by node identifier, for this request. */
+	private transient Map<Serializable, Long> childCounts;
+
+	/**
+	 * @param rootModel model of the root node
+	 * @param nodeClass mapped class of the nodes
+	 */
+	public LevelBatchDataProvider(HibernateObjectModel<T> rootModel, Class<T> nodeClass) {
+		super(rootModel);
+		this.nodeClass = nodeClass;
+		this.factoryKey = rootModel.getFactoryKey();
+	}
+
+	@Override
+	public Iterator<T> getRoots() {
+		return prepare(super.getRoots());
+	}
+
+	@Override
+	public Iterator<T> getChildren(T dto) {
+		return prepare(super.getChildren(dto));
+	}
+
+	/** Uses the batched child count if available, or the initialized children. */
+	@Override
+	public boolean hasChildren(T dto) {
+		if (childCounts != null) {
+			Long count = childCounts.get(getSession().getIdentifier(dto));
+			if (count != null)
+				return count > 0;
+		}
+		return super.hasChildren(dto);
+	}
+
+	/** Discards child counts of this request. */
+	@Override
+	public void detach() {
+		childCounts = null;
+		super.detach();
+	}
+
+	/**
+	 * Counts the children of a group of sibling nodes and initializes the children
+	 * of expanded ones, then does the same for the level below the expanded nodes.
+	 * @return iterator over the siblings
+	 */
+	protected Iterator<T> prepare(Iterator<T> siblings) {
+		List<T> nodes = new ArrayList<>();
+		while (siblings.hasNext())
+			nodes.add(siblings.next());
+		if (childCounts == null)
+			childCounts = new HashMap<>();
+		for (List<T> level = nodes; !level.isEmpty(); )
+			level = prepareLevel(level);
+		return nodes.iterator();
+	}
+
+	/** @return children of the nodes initialized by this call */
+	private List<T> prepareLevel(List<T> level) {
+		Session sess = getSession();
+		List<T> unknown = new ArrayList<>(), expanded = new ArrayList<>();
+		for (T node : level) {
+			if (node == null || Hibernate.isInitialized(node.getChildren()))
+				continue;
+			if (expansion != null && expansion.contains(node))
+				expanded.add(node);
+			else if (!childCounts.containsKey(sess.getIdentifier(node)))
+				unknown.add(node);
+		}
+		EntityMetadata metadata = EntityMetadata.get(Databinder.getHibernateSessionFactory(factoryKey), nodeClass);
+		String entityName = metadata.getEntityName(), id = metadata.getIdentifierPropertyName();
+		for (List<T> batch : batches(unknown)) {
+			for (T node : batch)
+				childCounts.put(sess.getIdentifier(node), 0L);
+			for (Object row : sess.createQuery("select c." + parentProperty + "." + id + ", count(c) from "
+					+ entityName + " c where c." + parentProperty + " in (:parents) group by c."
+					+ parentProperty + "." + id).setParameterList("parents", batch).list()) {
+				Object[] r = (Object[]) row;
+				childCounts.put((Serializable) r[0], (Long) r[1]);
+			}
+		}
+		List<T> next = new ArrayList<>();
+		for (List<T> batch : batches(expanded)) {
+			sess.createQuery("select distinct p from " + entityName + " p left join fetch p."
+					+ childrenProperty + " where p in (:parents)").setParameterList("parents", batch).list();
+			for (T node : batch)
+				next.addAll(node.getChildren());
+		}
+		return next;
+	}
+
+	private static <T> List<List<T>> batches(List<T> nodes) {
+		List<List<T>> batches = new ArrayList<>();
+		for (int i = 0; i < nodes.size(); i += BATCH_SIZE)
+			batches.add(nodes.subList(i, Math.min(nodes.size(), i + BATCH_SIZE)));
+		return batches;
+	}
+
+	private Session getSession() {
+		return Databinder.getHibernateSession(factoryKey);
+	}
+
+	/**
+	 * @param parentProperty property of a node referring to its parent
+	 * @return this, for chaining
+	 */
+	public LevelBatchDataProvider<T> setParentProperty(String parentProperty) {
+		this.parentProperty = parentProperty;
+		return this;
+	}
+
+	/**
+	 * @param childrenProperty collection property of a node holding its children
+	 * @return this, for chaining
+	 */
+	public LevelBatchDataProvider<T> setChildrenProperty(String childrenProperty) {
+		this.childrenProperty = childrenProperty;
+		return this;
+	}
+
+	/**
+	 * @param expansion expansion state of the tree, used to initialize the children of
+	 * expanded nodes together; may be null
+	 * @return this, for chaining
+	 */
+	public LevelBatchDataProvider<T> setExpansion(Set<T> expansion) {
+		this.expansion = expansion;
+		return this;
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.components.tree.hib;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import org.hibernate.Session;
+
+import net.databinder.components.tree.data.PathTreeObject;
+import net.databinder.hib.Databinder;
+import net.databinder.models.hib.EntityMetadata;
+
+/**
+ * Queries and maintains a tree of {@link PathTreeObject} nodes by their materialized paths.
+ * A subtree is selected with one prefix <code>like</code> query and an ancestor chain with
+ * one identifier <code>in</code> query, both using the path index. Nodes must be added and
+ * moved through this class to keep their paths and their descendants' paths current.
+ * <p>Numeric identifiers are zero-padded in paths, as in <code>/0000000001/0000000010/</code>,
+ * so that ordering by path orders siblings by identifier. A new node is saved with a
+ * unique placeholder path, not under any node, that is replaced once its identifier is
+ * known; the path column may be <code>not null</code> but must be long enough for
+ * the placeholder (37 characters).</p>
+ */
+public class PathTree<T extends PathTreeObject<T>> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private Class<T> nodeClass;
+	private String pathProperty = "path";
+	private int idDigits = 10;
+	private Object factoryKey;
+
+	/** @param nodeClass mapped class of the nodes */
+	public PathTree(Class<T> nodeClass) {
+		this.nodeClass = nodeClass;
+	}
+
+	/**
+	 * Saves a root node, if not already saved, and sets its path.
+	 * @param root node without parent
+	 */
+	public void addRoot(T root) {
+		root.setPath("/" + segment(save(root)) + "/");
+	}
+
+	/**
+	 * Adds the child to the parent, saving it if not already saved, and sets its path.
+	 * @param parent node with a path
+	 * @param child new node
+	 */
+	public void addChild(T parent, T child) {
+		parent.addChild(child);
+		child.setPath(parent.getPath() + segment(save(child)) + "/");
+	}
+
+	/**
+	 * Updates the paths of a node and all its descendants after it has been given a new
+	 * parent, with one bulk update. Descendants in the session are refreshed by the caller
+	 * if needed, as bulk updates do not affect loaded entities.
+	 * @param node moved node
+	 * @param parent new parent, or null for a root
+	 * @throws IllegalArgumentException if the parent is the node or one of its descendants
+	 */
+	public void moved(T node, T parent) {
+		String oldPath = node.getPath();
+		if (parent != null && parent.getPath().startsWith(oldPath))
+			throw new IllegalArgumentException("Node can not be moved under itself or its descendant: " + oldPath);
+		String newPath = (parent == null ? "/" : parent.getPath()) + segment(getSession().getIdentifier(node)) + "/";
+		getSession().flush();
+		getSession().createQuery("update " + getEntityName() + " set " + pathProperty + " = concat(:newPath, substring("
+				+ pathProperty + ", :from)) where " + pathProperty + " like :prefix escape '!'")
+				.setParameter("newPath", newPath).setParameter("from", oldPath.length() + 1)
+				.setParameter("prefix", likePrefix(oldPath)).executeUpdate();
+		node.setPath(newPath);
+	}
+
+	/**
+	 * @param node root of the subtree
+	 * @return node and all its descendants, ordered by path so that each node follows its parent
+	 */
+	public List<T> getSubtree(T node) {
+		return getSession().createQuery("from " + getEntityName() + " n where n." + pathProperty
+				+ " like :prefix escape '!' order by n." + pathProperty, nodeClass)
+				.setParameter("prefix", likePrefix(node.getPath())).list();
+	}
+
+	/**
+	 * @param node node with a path
+	 * @return ancestors of the node, from the root to its parent
+	 */
+	public List<T> getAncestors(T node) {
+		List<String> ids = new ArrayList<>();
+		for (String id : node.getPath().split("/"))
+			if (!id.isEmpty())
+				ids.add(id);
+		if (ids.size() < 2)
+			return Collections.emptyList();
+		List<String> paths = new ArrayList<>();
+		StringBuilder path = new StringBuilder("/");
+		for (String id : ids.subList(0, ids.size() - 1))
+			paths.add(path.append(id).append('/').toString());
+		List<T> ancestors = getSession().createQuery("from " + getEntityName() + " n where n." + pathProperty
+				+ " in (:paths)", nodeClass).setParameterList("paths", paths).list();
+		ancestors = new ArrayList<>(ancestors);
+		Collections.sort(ancestors, Comparator.comparing(n -> n.getPath().length()));
+		return ancestors;
+	}
+
+	/** @return the number of levels above the node */
+	public static int getDepth(PathTreeObject<?> node) {
+		int depth = -2;
+		for (char c : node.getPath().toCharArray())
+			if (c == '/')
+				depth++;
+		return depth;
+	}
+
+	/** Saves the node, if not in the session, with a placeholder path if it has none. */
+	private Serializable save(T node) {
+		Session sess = getSession();
+		if (!sess.contains(node)) {
+			if (node.getPath() == null)
+				node.setPath("~" + UUID.randomUUID());
+			sess.save(node);
+		}
+		return sess.getIdentifier(node);
+	}
+
+	/** @return identifier as a path segment, zero-padded if numeric */
+	private String segment(Serializable id) {
+		String segment = id.toString();
+		if (id instanceof Number && idDigits > segment.length() && !segment.startsWith("-")) {
+			StringBuilder padded = new StringBuilder(idDigits);
+			for (int i = segment.length(); i < idDigits; i++)
+				padded.append('0');
+			segment = padded.append(segment).toString();
+		}
+		return segment;
+	}
+
+	private static String likePrefix(String path) {
+		return path.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+	}
+
+	private String getEntityName() {
+		return EntityMetadata.get(Databinder.getHibernateSessionFactory(factoryKey), nodeClass).getEntityName();
+	}
+
+	private Session getSession() {
+		return Databinder.getHibernateSession(factoryKey);
+	}
+
+	/** @return mapped class of the nodes */
+	public Class<T> getNodeClass() {
+		return nodeClass;
+	}
+
+	/**
+	 * @param pathProperty property holding the materialized path, <code>path</code> by default
+	 * @return this, for chaining
+	 */
+	public PathTree<T> setPathProperty(String pathProperty) {
+		this.pathProperty = pathProperty;
+		return this;
+	}
+
+	/** @return number of digits numeric identifiers are padded to in paths */
+	public int getIdDigits() {
+		return idDigits;
+	}
+
+	/**
+	 * @param idDigits number of digits numeric identifiers are zero-padded to in paths,
+	 * 10 by default; siblings with longer identifiers are not ordered numerically
+	 * @return this, for chaining
+	 */
+	public PathTree<T> setIdDigits(int idDigits) {
+		this.idDigits = idDigits;
+		return this;
+	}
+
+	/**
+	 * @param factoryKey session factory key of the nodes
+	 * @return this, for chaining
+	 */
+	public PathTree<T> setFactoryKey(Object factoryKey) {
+		this.factoryKey = factoryKey;
+		return this;
+	}
+
+	/** @return session factory key of the nodes */
+	public Object getFactoryKey() {
+		return factoryKey;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.components.tree.hib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.databinder.components.tree.data.PathTreeObject;
+import net.databinder.models.hib.HibernateObjectModel;
+
+/**
+ * Tree provider for {@link PathTreeObject} nodes that selects the whole subtree of the
+ * root with one query, once per request, and answers child queries from it without
+ * initializing any children collections. Suited to expand-all views of deep trees.
+ * Children are ordered by path, which orders them by identifier.
+ * @see PathTree
+ */
+public class PathTreeDataProvider<T extends PathTreeObject<T>> extends DataProvider<T> {
+
+	private static final long serialVersionUID = 1L;
+
+	private HibernateObjectModel<T> rootModel;
+	private PathTree<T> pathTree;
+
+	/** Children by parent path, for this request. */
+	private transient Map<String, List<T>> children;
+
+	/**
+	 * @param rootModel model of the root node
+	 * @param pathTree path queries for the nodes
+	 */
+	public PathTreeDataProvider(HibernateObjectModel<T> rootModel, PathTree<T> pathTree) {
+		super(rootModel);
+		this.rootModel = rootModel;
+		this.pathTree = pathTree;
+	}
+
+	@Override
+	public Iterator<T> getRoots() {
+		T root = rootModel.getObject();
+		if (isRootLess() && root != null)
+			return getChildren(root);
+		return super.getRoots();
+	}
+
+	@Override
+	public boolean hasChildren(T dto) {
+		return !getChildList(dto).isEmpty();
+	}
+
+	@Override
+	public Iterator<T> getChildren(T dto) {
+		return getChildList(dto).iterator();
+	}
+
+	/** Discards the subtree of this request. */
+	@Override
+	public void detach() {
+		children = null;
+		super.detach();
+	}
+
+	private List<T> getChildList(T dto) {
+		if (children == null) {
+			children = new HashMap<>();
+			T root = rootModel.getObject();
+			if (root != null)
+				for (T node : pathTree.getSubtree(root)) {
+					String path = node.getPath();
+					String parentPath = path.substring(0, path.lastIndexOf('/', path.length() - 2) + 1);
+					List<T> siblings = children.get(parentPath);
+					if (siblings == null)
+						children.put(parentPath, siblings = new ArrayList<>());
+					siblings.add(node);
+				}
+		}
+		List<T> list = children.get(dto.getPath());
+		return list == null ? Collections.<T>emptyList() : list;
+	}
+
+	/** @return path queries for the nodes */
+	public PathTree<T> getPathTree() {
+		return pathTree;
+	}
+}
@@ -22,6 +22,7 @@ package net.databinder.hib;
 
 
 import org.apache.wicket.Application;
+import org.apache.wicket.MetaDataKey;
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.hibernate.SessionFactory;
@@ -38,6 +39,11 @@ import org.hibernate.context.internal.ManagedSessionContext;
  */
 public class Databinder {
 	
+	/** Present in the request cycle's meta data if the request only reads data. */
+	private static final MetaDataKey<Boolean> READ_ONLY_REQUEST = new MetaDataKey<Boolean>() {
+		private static final long serialVersionUID = 1L;
+	};
+	
 	/**
 	 * @return default session factory, as returned by the application
 	 * @throws WicketRuntimeException if session factory can not be found 
@@ -86,6 +92,48 @@ public class Databinder {
 		return ManagedSessionContext.hasBind(getHibernateSessionFactory(key));
 	}
 	
+	/**
+	 * Declares that the current request only reads data. Sessions opened afterwards by a
+	 * DataRequestCycle load entities read-only, are flushed only explicitly, and use a
+	 * read-only JDBC connection; sessions already open are not changed. Must be called
+	 * in a request cycle.
+	 * @see ReadOnlyRequest
+	 */
+	public static void setReadOnlyRequest() {
+		RequestCycle.get().setMetaData(READ_ONLY_REQUEST, Boolean.TRUE);
+	}
+	
+	/**
+	 * @return true if the current request was declared read-only
+	 * @see #setReadOnlyRequest()
+	 */
+	public static boolean isReadOnlyRequest() {
+		return inRequestCycle() && RequestCycle.get().getMetaData(READ_ONLY_REQUEST) != null;
+	}
+	
+	/**
+	 * Begins a transaction for the current session of the key. In a request cycle it is
+	 * begun by the application's session starter, with a read-only connection if the
+	 * request is read-only.
+	 * @param key or null for the default factory
+	 * @see HibernateSessionStarter#beginTransaction(Object)
+	 */
+	public static void beginTransaction(Object key) {
+		if (inRequestCycle())
+			getHibernateApplication().getHibernateRequestCyleListener().beginTransaction(key);
+		else
+			getHibernateSession(key).beginTransaction();
+	}
+
+	/**
+	 * @return true if transactions of this request's sessions begin only when they run their
+	 * first statement, so that code ending a transaction need not begin another
+	 * @see HibernateSessionStarter#isLazyTransactions()
+	 */
+	public static boolean isLazyTransactions() {
+		return inRequestCycle() && getHibernateApplication().getHibernateRequestCyleListener().isLazyTransactions();
+	}
+
 	/**
 	 * Notifies current request cycle that a data session was requested, if a session factory
 	 * was not already bound for this thread and the request cycle is an DataRequestCycle.
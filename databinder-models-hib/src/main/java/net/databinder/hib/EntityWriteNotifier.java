@@ -0,0 +1,161 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.hib;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Relays committed entity inserts, updates, and deletes of one session factory to
+ * registered listeners. Caches of query results use this to discard entries that
+ * a write may have changed. A notifier is appended to the factory's post-commit
+ * event listeners the first time it is requested, and discarded with its listeners
+ * when the factory is closed.
+ * @see #get(SessionFactory)
+ */
+public class EntityWriteNotifier implements PostCommitInsertEventListener,
+		PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+	private static final long serialVersionUID = 1L;
+
+	/** Callback for committed entity writes. */
+	public interface Listener {
+		/**
+		 * Called after a transaction writing an entity has committed.
+		 * @param persister persister of the written entity
+		 */
+		void entityWritten(EntityPersister persister);
+
+		/**
+		 * Called after a transaction writing an entity has committed, with the entity.
+		 * Calls {@link #entityWritten(EntityPersister)} by default.
+		 * @param persister persister of the written entity
+		 * @param id identifier of the written entity
+		 * @param entity the written entity
+		 * @param deleted true if the entity was deleted
+		 */
+		default void entityWritten(EntityPersister persister, Serializable id, Object entity, boolean deleted) {
+			entityWritten(persister);
+		}
+	}
+
+	private static final Map<SessionFactory, EntityWriteNotifier> notifiers = new WeakHashMap<>();
+
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param sf session factory to observe
+	 * @return notifier for the session factory, registered with it on first use
+	 */
+	public static synchronized EntityWriteNotifier get(SessionFactory sf) {
+		EntityWriteNotifier notifier = notifiers.get(sf);
+		if (notifier == null) {
+			notifier = new EntityWriteNotifier();
+			EventListenerRegistry registry = ((SessionFactoryImplementor) sf).getServiceRegistry()
+					.getService(EventListenerRegistry.class);
+			registry.appendListeners(EventType.POST_COMMIT_INSERT, notifier);
+			registry.appendListeners(EventType.POST_COMMIT_UPDATE, notifier);
+			registry.appendListeners(EventType.POST_COMMIT_DELETE, notifier);
+			((SessionFactoryImplementor) sf).addObserver(new Unregister());
+			notifiers.put(sf, notifier);
+		}
+		return notifier;
+	}
+
+	/**
+	 * Discards the notifier of a closed session factory, as its listeners may refer to
+	 * the factory and would keep it from being collected.
+	 */
+	private static class Unregister implements SessionFactoryObserver {
+		private static final long serialVersionUID = 1L;
+		@Override
+		public void sessionFactoryClosed(SessionFactory factory) {
+			EntityWriteNotifier notifier;
+			synchronized (EntityWriteNotifier.class) {
+				notifier = notifiers.remove(factory);
+			}
+			if (notifier != null)
+				notifier.listeners.clear();
+		}
+	}
+
+	public void addListener(Listener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	protected void entityWritten(EntityPersister persister, Serializable id, Object entity, boolean deleted) {
+		for (Listener listener : listeners)
+			listener.entityWritten(persister, id, entity, deleted);
+	}
+
+	public void onPostInsert(PostInsertEvent event) {
+		entityWritten(event.getPersister(), event.getId(), event.getEntity(), false);
+	}
+
+	public void onPostUpdate(PostUpdateEvent event) {
+		entityWritten(event.getPersister(), event.getId(), event.getEntity(), false);
+	}
+
+	public void onPostDelete(PostDeleteEvent event) {
+		entityWritten(event.getPersister(), event.getId(), event.getEntity(), true);
+	}
+
+	/** Nothing was written. */
+	public void onPostInsertCommitFailed(PostInsertEvent event) {
+	}
+
+	/** Nothing was written. */
+	public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+	}
+
+	/** Nothing was written. */
+	public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+	}
+
+	/** @return true, all entity writes are relayed */
+	@Override
+	public boolean requiresPostCommitHandling(EntityPersister persister) {
+		return true;
+	}
+
+	/** Still abstract in Hibernate 5.2, which calls {@link #requiresPostCommitHandling} instead. */
+	@Deprecated
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return requiresPostCommitHandling(persister);
+	}
+}
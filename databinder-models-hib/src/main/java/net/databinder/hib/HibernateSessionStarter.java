@@ -5,4 +5,17 @@ package net.databinder.hib;
  */
 public interface HibernateSessionStarter {
 	public void dataSessionRequested(Object key);
+
+	/**
+	 * Begins a transaction for the current session of the key, as the starter begins those
+	 * of the sessions it opens.
+	 */
+	public default void beginTransaction(Object key) {
+		Databinder.getHibernateSession(key).beginTransaction();
+	}
+
+	/** @return true if transactions are left to begin when their session first needs them */
+	public default boolean isLazyTransactions() {
+		return false;
+	}
 }
@@ -0,0 +1,63 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.hib;
+
+import java.util.Map;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.Query;
+
+/**
+ * Registers HQL queries by name with a session factory, so that they are parsed once at
+ * startup rather than on first use. Each query is compiled into the factory's query plan
+ * cache and then added as a named query; errors in any of them are reported together.
+ * @see net.databinder.models.hib.NamedQueryBuilder
+ */
+public class NamedQueries {
+
+	private NamedQueries() {
+	}
+
+	/**
+	 * @param sf session factory to register the queries with
+	 * @param queries HQL query strings by name
+	 * @throws HibernateException listing every query that could not be compiled
+	 */
+	public static void register(SessionFactory sf, Map<String, String> queries) {
+		StringBuilder errors = new StringBuilder();
+		Session sess = sf.openSession();
+		try {
+			for (Map.Entry<String, String> named : queries.entrySet()) {
+				try {
+					Query<?> query = sess.createQuery(named.getValue());
+					sf.addNamedQuery(named.getKey(), query);
+				} catch (RuntimeException e) {
+					errors.append("\n").append(named.getKey()).append(": ").append(e.getMessage());
+				}
+			}
+		} finally {
+			sess.close();
+		}
+		if (errors.length() > 0)
+			throw new HibernateException("Errors in named queries:" + errors);
+	}
+}
@@ -1,7 +1,5 @@
 package net.databinder.models.hib;
 
-
-import org.apache.wicket.core.util.lang.PropertyResolver;
 import org.hibernate.query.Query;
 
 /**
@@ -14,14 +12,14 @@ public abstract class AbstractPropertyQueryBinder<R, T> implements QueryBinder<R
 	private static final long serialVersionUID = 145077736634107819L;
 
 	/**
+	 * Binds each named parameter to the same-named property, through a plan compiled
+	 * once for the query string and the object's class.
 	 * @param query
 	 *            The query to bind
 	 * @param object
 	 *            The object to pull properties from
 	 */
 	protected void bind(final Query<R> query, final T t) {
-		for (final String parameter : query.getParameterMetadata().getNamedParameterNames()) {
-			query.setParameter(parameter, PropertyResolver.getValue(parameter, t));
-		}
+		BindingPlan.get(query, t).bind(query, t);
 	}
 }
@@ -24,6 +24,7 @@ package net.databinder.models.hib;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hibernate.Criteria;
 import org.hibernate.criterion.CriteriaSpecification;
@@ -69,33 +70,77 @@ public abstract class BaseCriteriaBuildAndSort implements OrderingCriteriaBuilde
 		aliases.clear();
 	}
 
+	/** @return property that buildOrdered() sorts by, or null if unordered */
+	public String getSortProperty() {
+		return defaultSortProperty;
+	}
+
+	/** @return true if buildOrdered() sorts ascending */
+	public boolean isSortAscending() {
+		return sortAscending;
+	}
+
+	/** @return true if buildOrdered() sorts case sensitive */
+	public boolean isSortCased() {
+		return sortCased;
+	}
+
 	protected String processProperty(final Criteria criteria, String property) {
+		return processProperty(criteria, aliases, property);
+	}
+
+	/**
+	 * Adds left join aliases for the associations of a dotted property that are not yet in
+	 * the given set of aliases.
+	 * @return property qualified by the alias of its association
+	 */
+	static String processProperty(final Criteria criteria, final Set<String> aliases, String property) {
 		if (property.contains(".")) {
 			// for 'dot' properties we need to add aliases
 			// e.g. for the property 'orderbook.order.item.name' we need to add an aliases for 'order' and 'order.item'
-			String path[] = property.split("\\.");
-			for (int ii = 0; ii < path.length - 1; ii++) {
-				StringBuffer sb = new StringBuffer();
-				for (int jj = 0; jj <= ii; jj++) {
-					if (sb.length() > 0) {
-						sb.append(".");
-					}
-					sb.append(path[jj]);
-				}
-				if (!aliases.contains(path[ii])) {
-					aliases.add(path[ii]);
-					criteria.createAlias(sb.toString(), path[ii], CriteriaSpecification.LEFT_JOIN);
+			AliasPath aliasPath = AliasPath.of(property);
+			for (int ii = 0; ii < aliasPath.aliases.length; ii++) {
+				if (!aliases.contains(aliasPath.aliases[ii])) {
+					aliases.add(aliasPath.aliases[ii]);
+					criteria.createAlias(aliasPath.associationPaths[ii], aliasPath.aliases[ii], CriteriaSpecification.LEFT_JOIN);
 				}
 			}
 			// when we have a 'dot' property we want to sort by the sub tables field
 			// e.g. for the property 'orderbook.order.item.name' we need to sort by 'item.name'
-			if (path.length > 1) {
-				property = String.format("%s.%s", path[path.length - 2], path[path.length - 1]);
+			property = aliasPath.property;
+		}
+		return property;
+	}
+
+	/** Aliases and association paths of a dotted property, split once per property string. */
+	private static class AliasPath {
+		private static final ConcurrentHashMap<String, AliasPath> paths = new ConcurrentHashMap<>();
+
+		final String[] associationPaths, aliases;
+		/** property qualified by its alias */
+		final String property;
+
+		private AliasPath(String property) {
+			String path[] = property.split("\\.");
+			associationPaths = new String[path.length - 1];
+			aliases = new String[path.length - 1];
+			StringBuilder sb = new StringBuilder();
+			for (int ii = 0; ii < path.length - 1; ii++) {
+				if (sb.length() > 0)
+					sb.append(".");
+				associationPaths[ii] = sb.append(path[ii]).toString();
+				aliases[ii] = path[ii];
 			}
-			else {
-				property = path[path.length - 1];
+			this.property = path.length > 1 ? path[path.length - 2] + "." + path[path.length - 1] : path[path.length - 1];
+		}
+
+		static AliasPath of(String property) {
+			AliasPath aliasPath = paths.get(property);
+			if (aliasPath == null) {
+				aliasPath = new AliasPath(property);
+				paths.putIfAbsent(property, aliasPath);
 			}
+			return aliasPath;
 		}
-		return property;
 	}
 }
@@ -0,0 +1,155 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wicket.core.util.lang.PropertyResolver;
+import org.hibernate.query.Query;
+
+/**
+ * Parameter names of a query string and accessors for the same-named properties of a bean
+ * class, compiled once and cached for the most recently used queries. Simple and dotted property paths are read through method
+ * handles for getters or public fields; other expressions, or paths whose getters are not
+ * found on the declared types, are read with {@link PropertyResolver}.
+ * @see AbstractPropertyQueryBinder
+ */
+final class BindingPlan {
+
+	/** Plans kept, beyond which the least recently used are discarded. */
+	private static final int MAX_PLANS = 500;
+
+	/** Plans by query string and bean class, in access order. */
+	private static final Map<List<Object>, BindingPlan> plans = new LinkedHashMap<List<Object>, BindingPlan>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, BindingPlan> eldest) {
+			return size() > MAX_PLANS;
+		}
+	};
+
+	private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+	private final String[] parameters;
+	/** accessor chains for each parameter, or null to use PropertyResolver */
+	private final MethodHandle[][] accessors;
+
+	private BindingPlan(Set<String> parameterNames, Class<?> beanClass) {
+		parameters = parameterNames.toArray(new String[parameterNames.size()]);
+		accessors = new MethodHandle[parameters.length][];
+		for (int i = 0; i < parameters.length; i++)
+			accessors[i] = compile(parameters[i], beanClass);
+	}
+
+	/**
+	 * @return plan for binding the query from properties of the bean's class
+	 */
+	static BindingPlan get(Query<?> query, Object bean) {
+		Class<?> beanClass = bean == null ? null : bean.getClass();
+		List<Object> key = Arrays.asList(query.getQueryString(), beanClass);
+		BindingPlan plan;
+		synchronized (plans) {
+			plan = plans.get(key);
+		}
+		if (plan == null) {
+			plan = new BindingPlan(query.getParameterMetadata().getNamedParameterNames(), beanClass);
+			synchronized (plans) {
+				plans.put(key, plan);
+			}
+		}
+		return plan;
+	}
+
+	/** Sets each named parameter of the query to the bean's property value. */
+	<R> void bind(Query<R> query, Object bean) {
+		for (int i = 0; i < parameters.length; i++)
+			query.setParameter(parameters[i], getValue(i, bean));
+	}
+
+	private Object getValue(int i, Object bean) {
+		if (accessors[i] == null)
+			return PropertyResolver.getValue(parameters[i], bean);
+		Object value = bean;
+		try {
+			for (MethodHandle accessor : accessors[i]) {
+				if (value == null)
+					return null;
+				value = accessor.invokeExact(value);
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+		return value;
+	}
+
+	/** @return accessor chain for a dotted property path, or null if not resolvable */
+	private static MethodHandle[] compile(String path, Class<?> beanClass) {
+		if (beanClass == null || path.indexOf('[') >= 0 || path.indexOf('(') >= 0)
+			return null;
+		String[] properties = path.split("\\.");
+		MethodHandle[] chain = new MethodHandle[properties.length];
+		Class<?> type = beanClass;
+		for (int i = 0; i < properties.length; i++) {
+			MethodHandle accessor = accessor(type, properties[i]);
+			if (accessor == null)
+				return null;
+			type = accessor.type().returnType();
+			chain[i] = accessor.asType(GETTER);
+		}
+		return chain;
+	}
+
+	private static MethodHandle accessor(Class<?> type, String property) {
+		if (property.isEmpty() || type.isPrimitive() || type.isArray() || Map.class.isAssignableFrom(type))
+			return null;
+		String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			for (String name : new String[] { "get" + suffix, "is" + suffix }) {
+				try {
+					Method m = type.getMethod(name);
+					if (m.getReturnType() == void.class || Modifier.isStatic(m.getModifiers()))
+						continue;
+					m.setAccessible(true);
+					return lookup.unreflect(m);
+				} catch (NoSuchMethodException e) { }
+			}
+			Field f = type.getField(property);
+			if (Modifier.isStatic(f.getModifiers()))
+				return null;
+			f.setAccessible(true);
+			return lookup.unreflectGetter(f);
+		} catch (NoSuchFieldException | IllegalAccessException | RuntimeException e) {
+			return null;	// leave to PropertyResolver
+		}
+	}
+}
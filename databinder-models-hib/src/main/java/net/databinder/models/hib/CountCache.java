@@ -0,0 +1,149 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.persister.entity.EntityPersister;
+
+import net.databinder.hib.EntityWriteNotifier;
+
+/**
+ * Application-wide cache of query counts for one session factory. Entries expire
+ * after their time to live, and are discarded when a committed write touches any
+ * table they were counted from.
+ * @see HibernateProvider#setSizeCacheTimeout(long)
+ */
+public class CountCache implements EntityWriteNotifier.Listener {
+
+	private static final Map<SessionFactory, CountCache> caches = new WeakHashMap<>();
+
+	/** Expired entries are purged when the cache grows beyond this size. */
+	private static final int PURGE_SIZE = 1000;
+
+	private final ConcurrentHashMap<List<Object>, Entry> entries = new ConcurrentHashMap<>();
+	/** incremented by each invalidation, to reject counts taken before one */
+	private final AtomicLong generation = new AtomicLong();
+
+	private static class Entry {
+		final long count, expires;
+		/** tables counted from */
+		final Set<Serializable> querySpaces;
+		Entry(long count, long expires, Set<Serializable> querySpaces) {
+			this.count = count;
+			this.expires = expires;
+			this.querySpaces = querySpaces;
+		}
+	}
+
+	/**
+	 * @param sf session factory the counts are taken from
+	 * @return count cache for the session factory
+	 */
+	public static synchronized CountCache get(SessionFactory sf) {
+		CountCache cache = caches.get(sf);
+		if (cache == null) {
+			cache = new CountCache();
+			EntityWriteNotifier.get(sf).addListener(cache);
+			caches.put(sf, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * @param key query key
+	 * @return unexpired count, or null if none is cached
+	 */
+	public Long get(List<Object> key) {
+		Entry entry = entries.get(key);
+		if (entry == null)
+			return null;
+		if (entry.expires < System.currentTimeMillis()) {
+			entries.remove(key, entry);
+			return null;
+		}
+		return entry.count;
+	}
+
+	/** @return stamp to pass to {@link #put} for counts taken after this call */
+	public long stamp() {
+		return generation.get();
+	}
+
+	/**
+	 * Caches the count unless its tables are unknown or the cache was invalidated
+	 * since the stamp was taken.
+	 * @param key query key
+	 * @param count query count
+	 * @param querySpaces tables the count is taken from, or null if unknown
+	 * @param timeToLive milliseconds to retain the count
+	 * @param stamp stamp taken before the count
+	 */
+	public void put(List<Object> key, long count, Set<Serializable> querySpaces, long timeToLive, long stamp) {
+		if (querySpaces == null || generation.get() != stamp)
+			return;
+		if (entries.size() >= PURGE_SIZE)
+			purgeExpired();
+		Entry entry = new Entry(count, System.currentTimeMillis() + timeToLive, querySpaces);
+		entries.put(key, entry);
+		// an invalidation may have started before the entry was added
+		if (generation.get() != stamp)
+			entries.remove(key, entry);
+	}
+
+	/** Discards counts taken from any of the given tables. */
+	public void invalidate(Serializable... querySpaces) {
+		generation.incrementAndGet();
+		Set<Serializable> written = new HashSet<>();
+		Collections.addAll(written, querySpaces);
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+			if (!Collections.disjoint(it.next().querySpaces, written))
+				it.remove();
+		}
+	}
+
+	/** Discards all counts. */
+	public void clear() {
+		generation.incrementAndGet();
+		entries.clear();
+	}
+
+	/** Discards counts from the written entity's tables. */
+	public void entityWritten(EntityPersister persister) {
+		invalidate(persister.getQuerySpaces());
+	}
+
+	private void purgeExpired() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); )
+			if (it.next().expires < now)
+				it.remove();
+	}
+}
@@ -69,6 +69,23 @@ public abstract class CriteriaBuildAndSort<T> extends BaseCriteriaBuildAndSort i
 		}
 	}
 
+	/** @return property of the current sort state, or the default sort property */
+	@Override
+	public String getSortProperty() {
+		SortParam<T> sort = sortState.getSort();
+		if (sort != null && sort.getProperty() != null)
+			return (String) sort.getProperty();
+		return defaultSortProperty;
+	}
+
+	@Override
+	public boolean isSortAscending() {
+		SortParam<T> sort = sortState.getSort();
+		if (sort != null && sort.getProperty() != null)
+			return sort.isAscending();
+		return sortAscending;
+	}
+
 	public ISortState<T> getSortState() {
 		return sortState;
 	}
@@ -23,7 +23,9 @@ import java.io.Serializable;
 * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
  ---*/
 
+import java.lang.invoke.MethodType;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -36,10 +38,18 @@ import org.apache.wicket.core.util.lang.PropertyResolverConverter;
 import org.apache.wicket.extensions.markup.html.repeater.data.table.filter.IFilterStateLocator;
 import org.apache.wicket.util.convert.ConversionException;
 import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
 import org.hibernate.criterion.Conjunction;
 import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.CriteriaImpl;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxyHelper;
+import org.hibernate.type.CompositeType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
 
 /**
  * An OrderingCriteriaBuilder implementation that can be wired to a FilterToolbar
@@ -71,6 +81,9 @@ public class CriteriaFilterAndSort extends CriteriaBuildAndSort<Map<String, Seri
 
     private Serializable bean;
 
+    private transient PropertyResolverConverter converter;
+    private transient Locale converterLocale;
+
     /**
      * 
      * @param bean
@@ -103,7 +116,7 @@ public class CriteriaFilterAndSort extends CriteriaBuildAndSort<Map<String, Seri
             String stringValue = (String) value;
 
             String prop = processProperty(criteria, property);
-            Class<?> clazz = PropertyResolver.getPropertyClass(property, bean);
+            Class<?> clazz = getPropertyClass(criteria, property);
 
             if (String.class.isAssignableFrom(clazz)) {
                 String[] items = stringValue.split("\\s+");
@@ -143,10 +156,69 @@ public class CriteriaFilterAndSort extends CriteriaBuildAndSort<Map<String, Seri
         criteria.add(conj);
     }
     
+    /**
+     * Finds the type of a filtered property once per bean class and session factory, from
+     * the Hibernate metamodel if the bean is a mapped entity, otherwise from its properties.
+     * The types are held in the bean class's {@link EntityMetadata}, discarded when the
+     * factory is closed. Primitive types are given as their wrappers.
+     */
+    protected Class<?> getPropertyClass(Criteria criteria, String property) {
+        if (!(criteria instanceof CriteriaImpl))
+            return findPropertyClass(null, property);
+        SessionFactoryImplementor sf = ((CriteriaImpl) criteria).getSession().getFactory();
+        Map<String, Class<?>> propertyClasses = EntityMetadata.get(sf,
+                HibernateProxyHelper.getClassWithoutInitializingProxy(bean)).getPropertyClasses();
+        Class<?> clazz = propertyClasses.get(property);
+        if (clazz == null) {
+            clazz = findPropertyClass(sf, property);
+            propertyClasses.putIfAbsent(property, clazz);
+        }
+        return clazz;
+    }
+
+    /** @return type of the property, mapped in the factory if given */
+    private Class<?> findPropertyClass(SessionFactoryImplementor sf, String property) {
+        Class<?> clazz = sf == null ? null : getMappedPropertyClass(sf, property);
+        if (clazz == null)
+            clazz = PropertyResolver.getPropertyClass(property, bean);
+        if (clazz.isPrimitive())
+            clazz = MethodType.methodType(clazz).wrap().returnType();
+        return clazz;
+    }
+
+    /** @return type of the property path through mapped associations and components, or null */
+    private Class<?> getMappedPropertyClass(SessionFactoryImplementor sf, String property) {
+        EntityPersister persister = EntityMetadata.get(sf, HibernateProxyHelper.getClassWithoutInitializingProxy(bean)).getPersister();
+        if (persister == null)
+            return null;
+        Type type = null;
+        try {
+            for (String name : property.split("\\.")) {
+                if (type == null)
+                    type = persister.getPropertyType(name);
+                else if (type instanceof EntityType)
+                    type = sf.getMetamodel().entityPersister(((EntityType) type).getAssociatedEntityName()).getPropertyType(name);
+                else if (type instanceof CompositeType) {
+                    CompositeType component = (CompositeType) type;
+                    type = component.getSubtypes()[component.getPropertyIndex(name)];
+                }
+                else
+                    return null;
+            }
+        }
+        catch (HibernateException ex) {
+            return null;
+        }
+        return type == null || type.isAssociationType() ? null : type.getReturnedClass();
+    }
+
     protected Number convertToNumber(String value, Class<?> clazz) {
-      return (Number)
-        new PropertyResolverConverter(Application.get().getConverterLocator(), Session.get().getLocale())
-          .convert(value, clazz);
+      Locale locale = Session.get().getLocale();
+      if (converter == null || !locale.equals(converterLocale)) {
+        converter = new PropertyResolverConverter(Application.get().getConverterLocator(), locale);
+        converterLocale = locale;
+      }
+      return (Number) converter.convert(value, clazz);
     }
     
     public Map<String, Serializable> getFilterState() {
@@ -17,6 +17,7 @@ package net.databinder.models.hib;
  limitations under the License.
  ---*/
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,11 +27,14 @@ import org.hibernate.criterion.Conjunction;
 import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.internal.CriteriaImpl;
 
 /**
  * An OrderingCriteriaBuilder implementation that can be wired to a SearchPanel or similar 
  * and the given properties searched auto-magically via an iLike. Avoids problems with duplicate 
- * Aliases by having all the Criteria building code in one location.
+ * Aliases by having all the Criteria building code in one location. If a {@link SearchBackend}
+ * is registered for the session factory and indexes the entity, it is searched instead and
+ * unsorted results are ordered by relevance.
  * 
  * Example usage;
  * 
@@ -58,6 +62,12 @@ public class CriteriaSearchAndSort<T> extends CriteriaBuildAndSort<T> {
 
     private IModel<String> searchTextModel;
 
+    /** Maximum number of matches taken from a search backend. */
+    private int searchLimit = 1000;
+
+    /** Identifiers matched by the search backend in the last build, most relevant first. */
+    private transient List<Serializable> rankedIds;
+
     public CriteriaSearchAndSort(IModel<String> searchTextModel, String[] searchProperties, String defaultSortProperty,
             boolean sortAscending, boolean sortCased) {
         super(defaultSortProperty, sortAscending, sortCased);
@@ -69,7 +79,10 @@ public class CriteriaSearchAndSort<T> extends CriteriaBuildAndSort<T> {
         super.buildUnordered(criteria);
 
         String searchText = searchTextModel.getObject();
-        if (searchText != null) {
+        rankedIds = null;
+        if (searchText != null)
+            rankedIds = SearchBackends.restrict(criteria, searchText, searchLimit);
+        if (searchText != null && rankedIds == null) {
             String[] items = searchText.split("\\s+");
             Conjunction conj = Restrictions.conjunction();
 
@@ -87,7 +100,39 @@ public class CriteriaSearchAndSort<T> extends CriteriaBuildAndSort<T> {
         }
     }
 
+    /** Orders by relevance when matched by a search backend and no sort property is set. */
+    @Override
+    public void buildOrdered(Criteria criteria) {
+        super.buildOrdered(criteria);
+        if (getSortProperty() == null && RankOrder.isRankable(rankedIds))
+            criteria.addOrder(new RankOrder(criteria instanceof CriteriaImpl
+                    ? ((CriteriaImpl) criteria).getAlias() + "." + idProperty(criteria) : "id", rankedIds));
+    }
+
+    private static String idProperty(Criteria criteria) {
+        CriteriaImpl impl = (CriteriaImpl) criteria;
+        return impl.getSession().getFactory().getMetamodel()
+                .entityPersister(impl.getEntityOrClassName()).getIdentifierPropertyName();
+    }
+
     public String[] getSearchProperties() {
         return searchProperties;
     }
+
+    /** @return maximum number of matches taken from a search backend */
+    public int getSearchLimit() {
+        return searchLimit;
+    }
+
+    /**
+     * Searches answered by a registered search backend match only its most relevant
+     * results, up to this limit, so their counts and pages are truncated at the limit
+     * where the <code>ilike</code> search is not. Every match is a query parameter.
+     * @param searchLimit maximum number of matches taken from a search backend, 1000 by default
+     * @return this, for chaining
+     */
+    public CriteriaSearchAndSort<T> setSearchLimit(int searchLimit) {
+        this.searchLimit = searchLimit;
+        return this;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,181 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.Version;
+
+import org.hibernate.MappingException;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * Identifier, version, and entity name of a class, looked up once per session factory.
+ * Versions of mapped entities are read through their Hibernate persister; for other
+ * classes a <code>@Version</code> annotated getter or field is found once and read
+ * through a method handle. The metadata of a session factory is discarded when it is closed.
+ */
+public final class EntityMetadata {
+
+	private static final Map<SessionFactory, Map<Class<?>, EntityMetadata>> registry = new WeakHashMap<>();
+
+	private static final ClassValue<MethodHandle> versionAccessors = new ClassValue<MethodHandle>() {
+		@Override
+		protected MethodHandle computeValue(Class<?> c) {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			try {
+				for (Method m : c.getMethods())
+					if (m.isAnnotationPresent(Version.class) && m.getParameterTypes().length == 0)
+						return lookup.unreflect(m);
+				for (Class<?> k = c; k != null; k = k.getSuperclass())
+					for (Field f : k.getDeclaredFields())
+						if (f.isAnnotationPresent(Version.class)) {
+							f.setAccessible(true);
+							return lookup.unreflectGetter(f);
+						}
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+			return null;
+		}
+	};
+
+	private final EntityPersister persister;
+	private final MethodHandle versionAccessor;
+	/** Types of property paths, as found by CriteriaFilterAndSort. */
+	private final Map<String, Class<?>> propertyClasses = new ConcurrentHashMap<>();
+
+	private EntityMetadata(EntityPersister persister, MethodHandle versionAccessor) {
+		this.persister = persister;
+		this.versionAccessor = versionAccessor;
+	}
+
+	/**
+	 * @param sf session factory the class may be mapped in
+	 * @param entityClass class, not a proxy class
+	 * @return metadata for the class
+	 */
+	public static EntityMetadata get(SessionFactory sf, Class<?> entityClass) {
+		Map<Class<?>, EntityMetadata> classes;
+		synchronized (registry) {
+			classes = registry.get(sf);
+			if (classes == null) {
+				registry.put(sf, classes = new ConcurrentHashMap<>());
+				((SessionFactoryImplementor) sf).addObserver(new Unregister());
+			}
+		}
+		EntityMetadata metadata = classes.get(entityClass);
+		if (metadata == null) {
+			EntityPersister persister = null;
+			try {
+				persister = ((SessionFactoryImplementor) sf).getMetamodel().entityPersister(entityClass);
+			} catch (MappingException e) { }	// not an entity
+			metadata = persister == null
+					? new EntityMetadata(null, versionAccessors.get(entityClass))
+					: new EntityMetadata(persister, null);
+			classes.put(entityClass, metadata);
+		}
+		return metadata;
+	}
+
+	/**
+	 * Discards the metadata of a closed session factory; its persisters refer to the
+	 * factory and would keep it from being collected.
+	 */
+	private static class Unregister implements SessionFactoryObserver {
+		private static final long serialVersionUID = 1L;
+		@Override
+		public void sessionFactoryClosed(SessionFactory factory) {
+			synchronized (registry) {
+				registry.remove(factory);
+			}
+		}
+	}
+
+	/** @return true if the class is a mapped entity */
+	public boolean isEntity() {
+		return persister != null;
+	}
+
+	/** @return Hibernate persister, or null if the class is not mapped */
+	public EntityPersister getPersister() {
+		return persister;
+	}
+
+	/** @return entity name, or null if the class is not mapped */
+	public String getEntityName() {
+		return persister == null ? null : persister.getEntityName();
+	}
+
+	/** @return identifier property, or <code>id</code> if the identifier has no property name */
+	public String getIdentifierPropertyName() {
+		if (persister == null || persister.getIdentifierPropertyName() == null)
+			return "id";
+		return persister.getIdentifierPropertyName();
+	}
+
+	/** @return types of the class's property paths by path, discarded with this metadata */
+	Map<String, Class<?>> getPropertyClasses() {
+		return propertyClasses;
+	}
+
+	/** @return true if instances have a version */
+	public boolean isVersioned() {
+		return persister != null ? persister.isVersioned() : versionAccessor != null;
+	}
+
+	/** @return version property name, or null if the class is not a versioned entity */
+	public String getVersionPropertyName() {
+		if (persister == null || !persister.isVersioned())
+			return null;
+		return persister.getPropertyNames()[persister.getVersionProperty()];
+	}
+
+	/**
+	 * @param object instance of the class, or a proxy for one
+	 * @return version of the object, or null if unversioned
+	 */
+	public Serializable getVersion(Object object) {
+		if (object instanceof HibernateProxy)
+			object = ((HibernateProxy) object).getHibernateLazyInitializer().getImplementation();
+		if (persister != null)
+			return persister.isVersioned() ? (Serializable) persister.getVersion(object) : null;
+		if (versionAccessor == null)
+			return null;
+		try {
+			return (Serializable) versionAccessor.invoke(object);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
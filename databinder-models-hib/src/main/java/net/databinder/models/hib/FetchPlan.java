@@ -0,0 +1,333 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.databinder.models.hib;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.AttributeNode;
+import javax.persistence.EntityGraph;
+import javax.persistence.Subgraph;
+
+import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.profile.Fetch;
+import org.hibernate.engine.profile.FetchProfile;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.Query;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+/**
+ * Associations to fetch with the entities of a provider or model, declared as a JPA entity
+ * graph by name, a Hibernate fetch profile by name, or association paths such as
+ * "category" and "lines.product". Graphs are reduced to their paths.
+ * <p>Single-valued associations are joined into the criteria or query itself, as fetch joins
+ * or a load graph. Paths through a collection are fetched afterwards in a second query
+ * restricted to the identifiers of the results, one for each collection, so that paging and
+ * result rows are not affected by joined collection rows. Fetch profiles are enabled
+ * for loads by identifier; with criteria and queries, the profile's fetches of the root
+ * entity's associations are applied as paths.</p>
+ */
+public class FetchPlan implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** Maximum identifiers restricted in one collection fetch query. */
+	private static final int MAX_IDS = 500;
+
+	private final String graphName, profileName;
+	private final List<String> paths;
+
+	/** Resolved paths by session factory and entity name. */
+	private static final Map<SessionFactory, Map<String, Resolved>> resolved =
+			Collections.synchronizedMap(new WeakHashMap<>());
+
+	private FetchPlan(String graphName, String profileName, List<String> paths) {
+		this.graphName = graphName;
+		this.profileName = profileName;
+		this.paths = paths;
+	}
+
+	/** @return plan fetching the associations of a named entity graph */
+	public static FetchPlan graph(String graphName) {
+		return new FetchPlan(graphName, null, Collections.<String>emptyList());
+	}
+
+	/** @return plan enabling a Hibernate fetch profile */
+	public static FetchPlan profile(String profileName) {
+		return new FetchPlan(null, profileName, Collections.<String>emptyList());
+	}
+
+	/** @return plan fetching the given association paths */
+	public static FetchPlan paths(String... paths) {
+		return new FetchPlan(null, null, Collections.unmodifiableList(new ArrayList<>(Arrays.asList(paths))));
+	}
+
+	/** @return entity graph name, or null */
+	public String getGraphName() {
+		return graphName;
+	}
+
+	/** @return fetch profile name, or null */
+	public String getProfileName() {
+		return profileName;
+	}
+
+	/** @return association paths given to this plan */
+	public List<String> getPaths() {
+		return paths;
+	}
+
+	/**
+	 * Enables the plan's fetch profile, if any, for loading entities by identifier. The
+	 * profile should not be enabled for criteria that fetch collections.
+	 * @return true if the profile was enabled by this call and should be disabled after
+	 */
+	public boolean enable(Session sess) {
+		if (profileName == null || sess.isFetchProfileEnabled(profileName))
+			return false;
+		sess.enableFetchProfile(profileName);
+		return true;
+	}
+
+	/**
+	 * Disables the fetch profile if it was enabled for the plan.
+	 * @param enabled value returned by {@link #enable(Session)}
+	 */
+	public void disable(Session sess, boolean enabled) {
+		if (enabled)
+			sess.disableFetchProfile(profileName);
+	}
+
+	/**
+	 * Joins single-valued association paths into criteria for the given entity class.
+	 * @return criteria, for chaining
+	 */
+	public Criteria apply(Session sess, Class<?> entityClass, Criteria criteria) {
+		for (String path : resolve(sess, entityClass).joined)
+			criteria.setFetchMode(path, FetchMode.JOIN);
+		return criteria;
+	}
+
+	/**
+	 * Applies single-valued association paths as a load graph to an HQL query selecting
+	 * entities. Queries with other results are not changed.
+	 * @return query, for chaining
+	 */
+	@SuppressWarnings("deprecation")
+	public <Q> Query<Q> apply(Session sess, Query<Q> query) {
+		if (query instanceof NativeQuery)
+			return query;
+		Type[] returns;
+		try {
+			returns = ((SessionFactoryImplementor) sess.getSessionFactory()).getQueryPlanCache()
+					.getHQLQueryPlan(query.getQueryString(), false, Collections.emptyMap())
+					.getReturnMetadata().getReturnTypes();
+		} catch (HibernateException e) {
+			return query;
+		}
+		if (returns.length != 1 || !returns[0].isEntityType())
+			return query;
+		Resolved plan = resolve(sess, ((EntityType) returns[0]).getAssociatedEntityName());
+		if (plan.joined.length == 0)
+			return query;
+		EntityGraph<?> graph = sess.createEntityGraph(plan.entityClass);
+		Map<String, Subgraph<?>> subgraphs = new HashMap<>();
+		for (String path : plan.joined) {
+			int dot = path.lastIndexOf('.');
+			String name = path.substring(dot + 1);
+			boolean parent = false;
+			for (String other : plan.joined)
+				parent |= other.startsWith(path + ".");
+			if (dot < 0 && parent)
+				subgraphs.put(path, graph.addSubgraph(name));
+			else if (dot < 0)
+				graph.addAttributeNodes(name);
+			else if (parent)
+				subgraphs.put(path, subgraphs.get(path.substring(0, dot)).addSubgraph(name));
+			else
+				subgraphs.get(path.substring(0, dot)).addAttributeNodes(name);
+		}
+		query.setHint("javax.persistence.loadgraph", graph);
+		return query;
+	}
+
+	/**
+	 * Fetches paths through collections for the entities of a result list, in a second
+	 * query restricted to their identifiers for each collection.
+	 * @param entityClass root entity class of the results
+	 * @param results loaded results, in the session
+	 * @param joined true to fetch single-valued paths as well, if they were not applied
+	 * to the query that loaded the results
+	 * @return results, for chaining
+	 */
+	@SuppressWarnings({ "unchecked", "deprecation" })
+	public <E> List<E> fetch(Session sess, Class<?> entityClass, List<E> results, boolean joined) {
+		Resolved plan = resolve(sess, entityClass);
+		Map<String, List<String>> groups = plan.collections;
+		if (joined && plan.joined.length > 0) {
+			groups = new LinkedHashMap<>(groups);
+			groups.put(null, Arrays.asList(plan.joined));
+		}
+		if (groups.isEmpty() || results.isEmpty() || plan.idProperty == null)
+			return results;
+		List<Serializable> ids = new ArrayList<>(results.size());
+		for (E result : results)
+			if (result != null && sess.contains(result))
+				ids.add(sess.getIdentifier(result));
+		for (int i = 0; i < ids.size(); i += MAX_IDS)
+			for (List<String> group : groups.values()) {
+				Criteria crit = sess.createCriteria(plan.entityClass)
+						.add(Restrictions.in(plan.idProperty, ids.subList(i, Math.min(ids.size(), i + MAX_IDS))))
+						.setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY);
+				for (String path : group)
+					crit.setFetchMode(path, FetchMode.JOIN);
+				crit.list();
+			}
+		return results;
+	}
+
+	/**
+	 * Fetches paths through collections for the entities of a result list whose class
+	 * is taken from its first result. Results that are not entities are not changed.
+	 * @see #fetch(Session, Class, List, boolean)
+	 */
+	public <E> List<E> fetch(Session sess, List<E> results, boolean joined) {
+		for (E result : results)
+			if (result != null) {
+				Class<?> entityClass = Hibernate.getClass(result);
+				return EntityMetadata.get(sess.getSessionFactory(), entityClass).isEntity()
+						? fetch(sess, entityClass, results, joined) : results;
+			}
+		return results;
+	}
+
+	/** @return association paths of the plan, named graph, or profile for the entity */
+	private List<String> getPaths(Session sess, String entityName) {
+		if (graphName != null) {
+			List<String> graphPaths = new ArrayList<>();
+			addPaths(graphPaths, "", sess.getEntityGraph(graphName).getAttributeNodes());
+			return graphPaths;
+		}
+		if (profileName != null) {
+			List<String> profilePaths = new ArrayList<>();
+			FetchProfile profile = ((SessionFactoryImplementor) sess.getSessionFactory()).getFetchProfile(profileName);
+			if (profile == null)
+				throw new HibernateException("Unknown fetch profile: " + profileName);
+			for (Fetch fetch : profile.getFetches().values())
+				if (fetch.getAssociation().getOwner().getEntityName().equals(entityName))
+					profilePaths.add(fetch.getAssociation().getAssociationPath());
+			return profilePaths;
+		}
+		return paths;
+	}
+
+	private static void addPaths(List<String> paths, String prefix, List<AttributeNode<?>> nodes) {
+		for (AttributeNode<?> node : nodes) {
+			String path = prefix + node.getAttributeName();
+			paths.add(path);
+			for (Subgraph<?> subgraph : node.getSubgraphs().values())
+				addPaths(paths, path + ".", subgraph.getAttributeNodes());
+		}
+	}
+
+	private Resolved resolve(Session sess, Class<?> entityClass) {
+		return resolve(sess, ((SessionFactoryImplementor) sess.getSessionFactory()).getMetamodel()
+				.entityPersister(entityClass).getEntityName());
+	}
+
+	private Resolved resolve(Session sess, String entityName) {
+		SessionFactory sf = sess.getSessionFactory();
+		Map<String, Resolved> plans = resolved.get(sf);
+		if (plans == null) {
+			plans = new ConcurrentHashMap<>();
+			resolved.put(sf, plans);
+		}
+		String key = entityName + "|" + graphName + "|" + profileName + "|" + paths;
+		Resolved plan = plans.get(key);
+		if (plan == null) {
+			plan = new Resolved((SessionFactoryImplementor) sf, entityName, getPaths(sess, entityName));
+			plans.put(key, plan);
+		}
+		return plan;
+	}
+
+	/** Paths of a plan for an entity, split into joined paths and collection fetches. */
+	private static class Resolved {
+		final Class<?> entityClass;
+		final String idProperty;
+		/** single-valued paths and their prefixes, parents first */
+		final String[] joined;
+		/** paths through a collection, with prefixes, by path of the first collection */
+		final Map<String, List<String>> collections = new LinkedHashMap<>();
+
+		Resolved(SessionFactoryImplementor sf, String entityName, List<String> paths) {
+			EntityPersister root = sf.getMetamodel().entityPersister(entityName);
+			entityClass = root.getMappedClass();
+			idProperty = root.getIdentifierPropertyName();
+			List<String> joined = new ArrayList<>();
+			for (String path : paths) {
+				EntityPersister persister = root;
+				String collection = null;
+				StringBuilder prefix = new StringBuilder();
+				List<String> prefixes = new ArrayList<>();
+				for (String name : path.split("\\.")) {
+					if (prefix.length() > 0)
+						prefix.append('.');
+					prefixes.add(prefix.append(name).toString());
+					Type type = persister.getPropertyType(name);
+					if (type.isCollectionType()) {
+						if (collection == null)
+							collection = prefix.toString();
+						type = ((CollectionType) type).getElementType(sf);
+					}
+					if (!type.isEntityType())
+						break;
+					persister = sf.getMetamodel().entityPersister(((EntityType) type).getAssociatedEntityName());
+				}
+				List<String> target = joined;
+				if (collection != null) {
+					target = collections.get(collection);
+					if (target == null)
+						collections.put(collection, target = new ArrayList<>());
+				}
+				for (String p : prefixes)
+					if (!target.contains(p))
+						target.add(p);
+			}
+			this.joined = joined.toArray(new String[joined.size()]);
+		}
+	}
+}
@@ -19,11 +19,13 @@
 
 package net.databinder.models.hib;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import net.databinder.hib.Databinder;
 import org.apache.wicket.model.LoadableDetachableModel;
 import org.hibernate.Criteria;
+import org.hibernate.Hibernate;
 import org.hibernate.Session;
 import org.hibernate.query.Query;
 
@@ -44,6 +46,13 @@ public class HibernateListModel<T> extends LoadableDetachableModel<List<T>> {
 	private CriteriaBuilder criteriaBuilder;
 	
 	private Object factoryKey;
+
+	/** Cache results in the application's {@link ResultCache}. */
+	private boolean cacheResults = false;
+	/** Associations fetched with the results, or null. */
+	private FetchPlan fetchPlan;
+	/** Load entities read-only. */
+	private boolean readOnly = false;
 	
 	/**
 	 * Contructor for a simple query.
@@ -120,6 +129,60 @@ public class HibernateListModel<T> extends LoadableDetachableModel<List<T>> {
 		return this;
 	}
 	
+	/** @return true if results are cached in the application's {@link ResultCache} */
+	public boolean isCacheResults() {
+		return cacheResults;
+	}
+
+	/**
+	 * Results that are read by every request, such as menu or lookup lists, may be cached
+	 * for all users in the {@link ResultCache} of the session factory. They are keyed by query
+	 * string, bound parameters and paging, or by the criteria's restrictions, values, orders, paging
+	 * and projection, and discarded when a committed write touches any of their tables.
+	 * Queries and criteria that can not be keyed, such as those bound to an unsaved
+	 * entity, are not cached.
+	 * @param cacheResults true to cache results
+	 * @return this, for chaining
+	 */
+	public HibernateListModel<T> setCacheResults(boolean cacheResults) {
+		this.cacheResults = cacheResults;
+		return this;
+	}
+
+	/** @return associations fetched with the results, or null */
+	public FetchPlan getFetchPlan() {
+		return fetchPlan;
+	}
+
+	/**
+	 * Fetch associations of the listed entities, to avoid loading them one at a time
+	 * as they are rendered. Single-valued associations are joined into the query;
+	 * collections are fetched in a second query by the identifiers of the results.
+	 * @param fetchPlan associations to fetch, or null
+	 * @return this, for chaining
+	 */
+	public HibernateListModel<T> setFetchPlan(FetchPlan fetchPlan) {
+		this.fetchPlan = fetchPlan;
+		return this;
+	}
+
+	/** @return true if entities are loaded read-only */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Entities loaded read-only are not snapshotted for dirty checking and are skipped
+	 * when the session is flushed. Cached results are made read-only when reloaded.
+	 * @param readOnly true to load entities read-only
+	 * @return this, for chaining
+	 * @see net.databinder.hib.Databinder#setReadOnlyRequest()
+	 */
+	public HibernateListModel<T> setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+		return this;
+	}
+
 	/**
 	 * Load the object List through Hibernate, binding query parameters if available.
 	 */
@@ -128,12 +191,60 @@ public class HibernateListModel<T> extends LoadableDetachableModel<List<T>> {
 	protected List<T> load() {
 		Session session = Databinder.getHibernateSession(factoryKey);
 		if (queryBuilder != null) {
-			return queryBuilder.build(session).list();
+			Query<T> query = queryBuilder.build(session);
+			if (fetchPlan != null)
+				fetchPlan.apply(session, query);
+			if (readOnly)
+				query.setReadOnly(true);
+			List<Object> signature = cacheResults ? QuerySignature.of(session, query) : null;
+			if (signature == null)
+				return fetchPlan == null ? query.list() : fetchPlan.fetch(session, query.list(), false);
+			List<Object> key = new ArrayList<>();
+			key.add(factoryKey);
+			key.addAll(signature);
+			ResultCache cache = ResultCache.get(session.getSessionFactory());
+			List<T> results = (List<T>) cache.get(session, key);
+			boolean cached = results != null;
+			if (cached && readOnly)
+				setReadOnly(session, results);
+			if (!cached) {
+				long stamp = cache.stamp();
+				results = query.list();
+				cache.put(session, key, results, QuerySignature.querySpaces(session, query), stamp);
+			}
+			return fetchPlan == null ? results : fetchPlan.fetch(session, results, cached);
 		}
 		
 		Criteria criteria = session.createCriteria(itemClass);
 		if (criteriaBuilder != null)
 			criteriaBuilder.build(criteria);
-		return criteria.list();
+		if (fetchPlan != null)
+			fetchPlan.apply(session, itemClass, criteria);
+		if (readOnly)
+			criteria.setReadOnly(true);
+		List<Object> signature = cacheResults ? QuerySignature.of(session, criteria) : null;
+		if (signature == null)
+			return fetchPlan == null ? criteria.list() : fetchPlan.fetch(session, itemClass, criteria.list(), false);
+		List<Object> key = new ArrayList<>();
+		key.add(factoryKey);
+		key.addAll(signature);
+		ResultCache cache = ResultCache.get(session.getSessionFactory());
+		List<T> results = (List<T>) cache.get(session, key);
+		boolean cached = results != null;
+		if (cached && readOnly)
+			setReadOnly(session, results);
+		if (!cached) {
+			long stamp = cache.stamp();
+			results = criteria.list();
+			cache.put(session, key, results, QuerySignature.querySpaces(session, criteria, itemClass), stamp);
+		}
+		return fetchPlan == null ? results : fetchPlan.fetch(session, itemClass, results, cached);
+	}
+
+	/** Makes the entities among cached results read-only. */
+	private static void setReadOnly(Session session, List<?> results) {
+		for (Object result : results)
+			if (result != null && EntityMetadata.get(session.getSessionFactory(), Hibernate.getClass(result)).isEntity())
+				session.setReadOnly(result, true);
 	}
 }
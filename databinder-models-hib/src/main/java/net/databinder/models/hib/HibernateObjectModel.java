@@ -20,15 +20,14 @@
 package net.databinder.models.hib;
 
 import java.io.Serializable;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-
-import javax.persistence.Version;
+import java.util.Collections;
+import java.util.Objects;
 
 import org.apache.wicket.WicketRuntimeException;
 import org.hibernate.Criteria;
-import org.hibernate.Hibernate;
 import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.query.Query;
 import org.hibernate.proxy.HibernateProxyHelper;
 
 import net.databinder.hib.Databinder;
@@ -51,6 +50,10 @@ public class HibernateObjectModel<T> extends LoadableWritableModel<T> implements
 	private T retainedObject;
 	/** Enable retaining unsaved objects between requests. */
 	private boolean retainUnsaved = true;
+	/** Load with other models of the same class and factory. */
+	private boolean batchLoad = false;
+	/** Associations fetched with the object, or null. */
+	private FetchPlan fetchPlan;
 	
 	private Object factoryKey;
 
@@ -197,16 +200,53 @@ public class HibernateObjectModel<T> extends LoadableWritableModel<T> implements
 		}
 		Session sess = Databinder.getHibernateSession(factoryKey);
 		if (objectId != null) {
-			return (T) sess.get(objectClass, objectId);
+			if (batchLoad) {
+				ModelBatchLoader loader = ModelBatchLoader.get();
+				if (loader != null)
+					loader.load(sess, factoryKey, objectClass, objectId);
+			}
+			if (fetchPlan == null)
+				return sess.get(objectClass, objectId);
+			if (fetchPlan.getProfileName() != null) {
+				boolean profile = fetchPlan.enable(sess);
+				try {
+					return sess.get(objectClass, objectId);
+				} finally {
+					fetchPlan.disable(sess, profile);
+				}
+			}
+			T object = sess.get(objectClass, objectId);
+			if (object != null)
+				fetchPlan.fetch(sess, objectClass, Collections.singletonList(object), true);
+			return object;
 		}
 
+		T object;
 		if(criteriaBuilder != null) {
 			Criteria criteria = sess.createCriteria(objectClass);
 			criteriaBuilder.build(criteria);
-			return (T) criteria.uniqueResult();
+			if (fetchPlan != null)
+				fetchPlan.apply(sess, objectClass, criteria);
+			object = (T) criteria.uniqueResult();
+		} else {
+			Query<T> query = queryBuilder.build(sess);
+			if (fetchPlan != null)
+				fetchPlan.apply(sess, query);
+			object = query.uniqueResult();
 		}
+		if (fetchPlan != null && object != null)
+			fetchPlan.fetch(sess, Collections.singletonList(object), false);
+		return object;
+	}
 
-		return (T) queryBuilder.build(sess).uniqueResult();
+	/** Records the identifier of batch loading models for the next request. */
+	@Override
+	protected void onDetach() {
+		if (batchLoad && objectId != null && objectClass != null) {
+			ModelBatchLoader loader = ModelBatchLoader.get();
+			if (loader != null)
+				loader.detached(factoryKey, objectClass, objectId);
+		}
 	}
 
 	/**
@@ -225,53 +265,77 @@ public class HibernateObjectModel<T> extends LoadableWritableModel<T> implements
 	}
 
 	/**
-	 * Uses version annotation to find version for this Model's object.
+	 * Finds the version of this model's object through its {@link EntityMetadata}.
 	 * @return Persistent storage version number if available, null otherwise
 	 */
 	public Serializable getVersion() {
 		Object o = getObject();
 
-		if (o != null) {
-			@SuppressWarnings("unchecked")
-			Class<T> c = Hibernate.getClass(o);
-			try {
-				for (Method m : c.getMethods())
-					if (m.isAnnotationPresent(Version.class)
-							&& m.getParameterTypes().length == 0
-							&& m.getReturnType() instanceof Serializable)
-						return (Serializable) m.invoke(o, new Object[] {});
-				for (Field f : c.getDeclaredFields())
-					if (f.isAnnotationPresent(Version.class) 
-							&& f.getType() instanceof Serializable) {
-						f.setAccessible(true);
-						return (Serializable) f.get(o);
-					}
-			} catch (Exception e) {
-				throw new RuntimeException(e);
-			}
-		}
+		if (o != null)
+			return getMetadata(HibernateProxyHelper.getClassWithoutInitializingProxy(o)).getVersion(o);
 		return null;
 	}
 
-	/** Compares contained objects if present, otherwise calls super-implementation.*/
+	/**
+	 * Reads the persistent version for this model's entity id without loading the entity,
+	 * unless the entity is already loaded. For models not bound to the id of a versioned
+	 * entity, returns {@link #getVersion()}.
+	 * @return Persistent storage version number if available, null otherwise
+	 */
+	public Serializable loadVersion() {
+		if (isAttached() || objectId == null)
+			return getVersion();
+		EntityMetadata metadata = getMetadata(objectClass);
+		if (!metadata.isEntity())
+			return getVersion();
+		if (!metadata.isVersioned())
+			return null;
+		SessionImplementor sess = (SessionImplementor) Databinder.getHibernateSession(factoryKey);
+		Object loaded = sess.getPersistenceContext().getEntity(sess.generateEntityKey(objectId, metadata.getPersister()));
+		if (loaded != null)
+			return metadata.getVersion(loaded);
+		return (Serializable) sess.createQuery("select e." + metadata.getVersionPropertyName() + " from "
+				+ metadata.getEntityName() + " e where e." + metadata.getIdentifierPropertyName() + " = :id")
+				.setParameter("id", objectId).uniqueResult();
+	}
+
+	private EntityMetadata getMetadata(Class<?> c) {
+		return EntityMetadata.get(Databinder.getHibernateSessionFactory(factoryKey), c);
+	}
+
+	/**
+	 * Models bound to an identifier are equal if their identifiers and factory keys are equal
+	 * and one's class is assignable to the other's; neither is loaded. Other models compare
+	 * contained objects if present, otherwise call the super-implementation.
+	 */
 	@Override
 	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof HibernateObjectModel))
+			return false;
+		HibernateObjectModel<?> other = (HibernateObjectModel<?>) obj;
+		if (objectId != null || other.objectId != null)
+			return objectId != null && objectId.equals(other.objectId)
+				&& Objects.equals(factoryKey, other.factoryKey)
+				&& (objectClass.isAssignableFrom(other.objectClass) || other.objectClass.isAssignableFrom(objectClass));
 		Object target = getObject();
-		if (target != null && obj instanceof HibernateObjectModel)
-			return target.equals(((HibernateObjectModel<T>)obj).getObject());
+		if (target != null)
+			return target.equals(other.getObject());
 		return super.equals(obj);
 	}
 	
-	/** @return hash of contained object if present, otherwise from super-implementation.*/
+	/** @return hash of identifier and factory key if bound to an identifier, otherwise of contained object if present, otherwise from super-implementation.*/
 	@Override
 	public int hashCode() {
+		if (objectId != null)
+			return Objects.hash(objectId, factoryKey);
 		Object target = getObject();
 		if (target == null)
 			return super.hashCode();
 		return target.hashCode();
 	}
 	
-
 	/**
 	 * Disassociates this object from any persistent object, but retains the class
 	 * for constructing a blank copy if requested.
@@ -314,4 +378,40 @@ public class HibernateObjectModel<T> extends LoadableWritableModel<T> implements
 	public void setRetainUnsaved(boolean retainUnsaved) {
 		this.retainUnsaved = retainUnsaved;
 	}
+
+	/** @return true if this model loads with other models of its class */
+	public boolean isBatchLoad() {
+		return batchLoad;
+	}
+
+	/**
+	 * Batch loading models that are bound to an identifier and detached at the end of a
+	 * request are loaded together in the next request: the first of them to load
+	 * loads the entities of all the others with the same class and factory key in one query.
+	 * This is useful for the row models of a data table that are reused in Ajax requests.
+	 * Requires a Wicket session.
+	 * @param batchLoad true to load with other models of the same class and factory
+	 * @return this, for chaining
+	 */
+	public HibernateObjectModel<T> setBatchLoad(boolean batchLoad) {
+		this.batchLoad = batchLoad;
+		return this;
+	}
+
+	/** @return associations fetched with the object, or null */
+	public FetchPlan getFetchPlan() {
+		return fetchPlan;
+	}
+
+	/**
+	 * Fetch associations of the object when it is loaded. When loaded by identifier, a
+	 * fetch profile is enabled for the load and other plans' paths are fetched in a second
+	 * query; with criteria or a query, single-valued associations are joined into it.
+	 * @param fetchPlan associations to fetch, or null
+	 * @return this, for chaining
+	 */
+	public HibernateObjectModel<T> setFetchPlan(FetchPlan fetchPlan) {
+		this.fetchPlan = fetchPlan;
+		return this;
+	}
 }
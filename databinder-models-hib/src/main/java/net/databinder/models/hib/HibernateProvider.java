@@ -18,13 +18,32 @@
  */
 package net.databinder.models.hib;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
+import org.apache.wicket.core.util.lang.PropertyResolver;
 import org.apache.wicket.model.IModel;
 import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.criterion.SimpleExpression;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.CriteriaImpl;
+import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.query.Query;
+import org.hibernate.type.LongType;
+import org.hibernate.type.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import net.databinder.hib.Databinder;
 import net.databinder.models.PropertyDataProvider;
@@ -40,13 +59,57 @@ import net.databinder.models.PropertyDataProvider;
  * @author Nathan Hamblen
  */
 public class HibernateProvider<T> extends PropertyDataProvider<T> {
+	private static final Logger log = LoggerFactory.getLogger(HibernateProvider.class);
+	
 	private Class<T> objectClass;
 	private OrderingCriteriaBuilder criteriaBuilder;
+	/** Separate builder of the criteria's order, if any. */
+	private CriteriaBuilder criteriaOrderer;
 	private QueryBuilder<T> queryBuilder;
 	private QueryBuilder<Number> countQueryBuilder;
 	
 	private Object factoryKey;
 	
+	/** Use Query.iterate() instead of list() for the query path. */
+	private boolean iterateQuery = false;
+	/** JDBC fetch size for page queries, or null for the driver default. */
+	private Integer fetchSize;
+	
+	/** Seek past the last row of the previous page instead of skipping an offset. */
+	private boolean keysetPaging = false;
+	/** Index of the page that can seek from the retained keyset, or -1 if none. */
+	private long keysetFirst = -1;
+	/** Criteria, sort property and direction the keyset was taken from. */
+	private String keysetCriteria, keysetProperty;
+	private boolean keysetAscending;
+	/** Sort value and identifier of the last row of the previous page. */
+	private Serializable keysetValue, keysetId;
+	
+	/** Milliseconds to retain counts in the application's CountCache, or 0 to not use it. */
+	private long sizeCacheTimeout = 0;
+	/** Maximum count, or 0 to count all results. */
+	private long sizeCap = 0;
+	/** Estimates size in place of a count, if set. */
+	private SizeEstimator sizeEstimator;
+	/** Associations fetched with each page, or null. */
+	private FetchPlan fetchPlan;
+	/** Load entities read-only. */
+	private boolean readOnly = false;
+	/** Create batch loading item models. */
+	private boolean batchLoadModels = false;
+	/** Select the total with each page, using a window function. */
+	private boolean pageWithCount = false;
+	/** Bounds of the last page requested, prefetched with the count in size(). */
+	private long lastFirst = -1, lastCount;
+	/** Page identifiers selected with the total, and their entities, cleared on detach. */
+	private transient List<Serializable> countedIds;
+	private transient List<T> countedRows;
+	private transient List<Object> countedKey;
+	private transient long countedFirst, countedCount;
+	/** Count query key and result for the current request, cleared on detach. */
+	private transient List<Object> sizeKey;
+	private transient long sizeValue;
+	
 	/**
 	 * Provides all entities of the given class.
 	 */
@@ -63,6 +126,7 @@ public class HibernateProvider<T> extends PropertyDataProvider<T> {
 	@SuppressWarnings("serial")
 	public HibernateProvider(Class<T> objectClass, final CriteriaBuilder criteriaBuilder, final CriteriaBuilder criteriaOrderer) {
 		this(objectClass);
+		this.criteriaOrderer = criteriaOrderer;
 		this.criteriaBuilder = new OrderingCriteriaBuilder() {
 			public void buildOrdered(Criteria criteria) {
 				criteriaBuilder.build(criteria);
@@ -161,6 +225,123 @@ public class HibernateProvider<T> extends PropertyDataProvider<T> {
 		return this;
 	}
 	
+	/** @return true if the query path uses Query.iterate() */
+	public boolean isIterateQuery() {
+		return iterateQuery;
+	}
+
+	/**
+	 * By default a page of query results is fetched in a single select with Query.list().
+	 * Query.iterate() selects only identifiers and then loads each entity separately, which
+	 * is only faster when nearly all of them are in the second-level cache.
+	 * @param iterateQuery true to use Query.iterate() for the query path
+	 * @return this, for chaining
+	 */
+	public HibernateProvider<T> setIterateQuery(boolean iterateQuery) {
+		this.iterateQuery = iterateQuery;
+		return this;
+	}
+
+	/** @return JDBC fetch size for page queries, or null if not set */
+	public Integer getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Set a JDBC fetch size for page queries. Some drivers fetch very few rows per
+	 * round trip by default; a fetch size near the page size avoids that.
+	 * @param fetchSize rows per round trip, or null for the driver default
+	 * @return this, for chaining
+	 */
+	public HibernateProvider<T> setFetchSize(Integer fetchSize) {
+		this.fetchSize = fetchSize;
+		return this;
+	}
+	
+	/** @return true if keyset paging is enabled */
+	public boolean isKeysetPaging() {
+		return keysetPaging;
+	}
+
+	/**
+	 * Keyset (or seek) paging retains the sort value and identifier of the last row of
+	 * each page. When the next page is requested, rows are selected from after that row
+	 * rather than by skipping an offset, so the database does not read and discard every
+	 * preceding row. Random page jumps and changed criteria fall back to offset paging.
+	 * <p>Keyset paging applies to the criteria path only. The criteria builder or orderer, if
+	 * any, must extend BaseCriteriaBuildAndSort so that its sort property is known; the
+	 * identifier is added as a final order to break ties. Criteria ordered by anything else,
+	 * such as by search rank, or by a property that may be null, are paged by offset, as are
+	 * those of orderers such as CriteriaSorter that do not extend BaseCriteriaBuildAndSort.</p>
+	 * @param keysetPaging true to enable keyset paging
+	 * @return this, for chaining
+	 */
+	public HibernateProvider<T> setKeysetPaging(boolean keysetPaging) {
+		this.keysetPaging = keysetPaging;
+		keysetFirst = -1;
+		return this;
+	}
+	
+	/** @return true if pages are selected with the total count */
+	public boolean isPageWithCount() {
+		return pageWithCount;
+	}
+
+	/**
+	 * Selects the identifiers of each page together with the total count, in one statement
+	 * using the window function <code>count(*) over()</code>, so that criteria restrictions
+	 * are evaluated once for both. The page's entities are then loaded by identifier, and the 
+	 * total is retained for the request to answer size(). Since size() is normally called
+	 * first, it selects the identifiers of the page last requested, which is usually the page
+	 * about to render. If another page is requested, as after a page change, its entities are
+	 * selected as usual since the count is already known; only the identifiers of the stale
+	 * page were selected along with the count.
+	 * <p>Applies to the criteria path only and requires a database with window functions.
+	 * Keyset paging is not applied to pages selected with the count.</p>
+	 * @param pageWithCount true to select pages with the total count
+	 * @return this, for chaining
+	 */
+	public HibernateProvider<T> setPageWithCount(boolean pageWithCount) {
+		this.pageWithCount = pageWithCount;
+		return this;
+	}
+	
+	/** @return associations fetched with each page, or null */
+	public FetchPlan getFetchPlan() {
+		return fetchPlan;
+	}
+
+	/**
+	 * Fetch associations of the entities of each page, to avoid loading them one at a time
+	 * as they are rendered. Single-valued associations are joined into the page query;
+	 * collections are fetched in a second query by the identifiers of the page.
+	 * Not applied to Query.iterate(), which loads each entity by identifier.
+	 * @param fetchPlan associations to fetch, or null
+	 * @return this, for chaining
+	 */
+	public HibernateProvider<T> setFetchPlan(FetchPlan fetchPlan) {
+		this.fetchPlan = fetchPlan;
+		return this;
+	}
+	
+	/** @return true if entities are loaded read-only */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Entities loaded read-only are not snapshotted for dirty checking and are skipped
+	 * when the session is flushed. Use for listings whose entities are not changed in
+	 * the request.
+	 * @param readOnly true to load entities read-only
+	 * @return this, for chaining
+	 * @see net.databinder.hib.Databinder#setReadOnlyRequest()
+	 */
+	public HibernateProvider<T> setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+		return this;
+	}
+	
 	/**
 	 * It should not normally be necessary to override (or call) this default implementation.
 	 */
@@ -172,16 +353,273 @@ public class HibernateProvider<T> extends PropertyDataProvider<T> {
 			Query<T> q = queryBuilder.build(sess);
 			q.setFirstResult((int)first);
 			q.setMaxResults((int)count);
-			return q.iterate();
+			if (fetchSize != null)
+				q.setFetchSize(fetchSize);
+			if (readOnly)
+				q.setReadOnly(true);
+			if (iterateQuery)
+				return q.iterate();
+			if (fetchPlan == null)
+				return q.list().iterator();
+			return fetchPlan.fetch(sess, fetchPlan.apply(sess, q).list(), false).iterator();
 		}			
 		
+		if (pageWithCount) {
+			List<T> page = countedPage(sess, first, count);
+			if (page != null)
+				return page.iterator();
+		}
+
 		Criteria crit = sess.createCriteria(objectClass);
 		if (criteriaBuilder != null)
 			criteriaBuilder.buildOrdered(crit);
+		if (fetchPlan != null)
+			fetchPlan.apply(sess, objectClass, crit);
+		if (readOnly)
+			crit.setReadOnly(true);
 		
+		List<T> page;
+		BaseCriteriaBuildAndSort sorter = getSorter();
+		if (keysetPaging && (criteriaBuilder == null || sorter != null) && isKeysetOrdered(sess, crit, sorter))
+			page = keysetPage(sess, crit, sorter, first, count);
+		else {
+			if (keysetPaging)
+				log.debug("Criteria sort can not be sought by keyset, paging by offset.");
+			crit.setFirstResult((int)first);
+			crit.setMaxResults((int)count);
+			if (fetchSize != null)
+				crit.setFetchSize(fetchSize);
+			page = crit.list();
+		}
+		return (fetchPlan == null ? page : fetchPlan.fetch(sess, objectClass, page, false)).iterator();
+	}
+	
+	/**
+	 * Lists a page from the identifiers selected with the total count. Uses the identifiers
+	 * size() selected if they are of the same page and criteria, or else selects them if the
+	 * count is not yet known. Returns null if it is, so that the page is selected as usual.
+	 */
+	@SuppressWarnings("deprecation")
+	private List<T> countedPage(Session sess, long first, long count) {
+		lastFirst = first;
+		lastCount = count;
+		Criteria unordered = sess.createCriteria(objectClass);
+		if (criteriaBuilder != null)
+			criteriaBuilder.buildUnordered(unordered);
+		List<Object> key = QuerySignature.of(sess, unordered);
+		if (countedIds == null || key == null || !key.equals(countedKey) || first != countedFirst || count != countedCount) {
+			if (cachedSize(sess, cappedKey(key)) != null)
+				return null;
+			countedIds(sess, key, first, count);
+		} else if (countedRows != null)
+			return countedRows;
+		
+		List<T> page = new ArrayList<>(countedIds.size());
+		if (!countedIds.isEmpty()) {
+			for (T entity : sess.byMultipleIds(objectClass).multiLoad(countedIds))
+				if (entity != null) {
+					if (readOnly)
+						sess.setReadOnly(entity, true);
+					page.add(entity);
+				}
+			if (fetchPlan != null)
+				fetchPlan.fetch(sess, objectClass, page, true);
+		}
+		countedRows = page;
+		return page;
+	}
+
+	/**
+	 * Selects the identifiers of a page with the total count of results, and retains the
+	 * count if the page is not empty. The page's entities are not loaded, so that selecting
+	 * a page that is not rendered costs little more than a count.
+	 */
+	@SuppressWarnings({ "unchecked", "deprecation" })
+	private void countedIds(Session sess, List<Object> key, long first, long count) {
+		Criteria crit = sess.createCriteria(objectClass);
+		if (criteriaBuilder != null)
+			criteriaBuilder.buildOrdered(crit);
+		crit.setProjection(Projections.projectionList()
+				.add(Projections.id())
+				.add(Projections.sqlProjection("count(*) over() as total_rows_", 
+						new String[] { "total_rows_" }, new Type[] { LongType.INSTANCE })));
 		crit.setFirstResult((int)first);
 		crit.setMaxResults((int)count);
-		return crit.list().iterator();
+		if (fetchSize != null)
+			crit.setFetchSize(fetchSize);
+		long stamp = sizeStamp(sess);
+		Set<Serializable> querySpaces = sizeCacheTimeout > 0 
+				? QuerySignature.querySpaces(sess, crit, objectClass) : null;
+		List<Object[]> rows = crit.list();
+		
+		List<Serializable> ids = new ArrayList<>(rows.size());
+		for (Object[] row : rows)
+			ids.add((Serializable) row[0]);
+		if (!rows.isEmpty()) {
+			long total = ((Number) rows.get(0)[1]).longValue();
+			cacheSize(sess, cappedKey(key), sizeCap > 0 ? Math.min(total, sizeCap + 1) : total, 
+					querySpaces, stamp);
+		}
+		countedFirst = first;
+		countedCount = count;
+		countedKey = key;
+		countedIds = ids;
+		countedRows = null;
+	}
+
+	/** @return the criteria builder or orderer that sorts, if either is a BaseCriteriaBuildAndSort */
+	private BaseCriteriaBuildAndSort getSorter() {
+		if (criteriaBuilder instanceof BaseCriteriaBuildAndSort)
+			return (BaseCriteriaBuildAndSort) criteriaBuilder;
+		if (criteriaOrderer instanceof BaseCriteriaBuildAndSort)
+			return (BaseCriteriaBuildAndSort) criteriaOrderer;
+		return null;
+	}
+
+	/**
+	 * @return true if the criteria are ordered by nothing but the sorter's sort property,
+	 * so that the rows after a keyset can be sought; not if also ordered by search rank,
+	 * or if the sort property may be null, as rows with null values can not be sought
+	 */
+	private boolean isKeysetOrdered(Session sess, Criteria crit, BaseCriteriaBuildAndSort sorter) {
+		if (!(crit instanceof CriteriaImpl))
+			return false;
+		String property = sorter == null ? null : sorter.getSortProperty();
+		int orders = 0;
+		for (Iterator<CriteriaImpl.OrderEntry> it = ((CriteriaImpl) crit).iterateOrderings(); it.hasNext(); it.next())
+			orders++;
+		if (orders != (property == null ? 0 : 1))
+			return false;
+		if (property == null)
+			return true;
+		EntityPersister persister = ((SessionFactoryImplementor) sess.getSessionFactory()).getMetamodel()
+				.entityPersister(objectClass);
+		if (property.equals(persister.getIdentifierPropertyName()))
+			return true;
+		Integer index = persister.getEntityMetamodel().getPropertyIndexOrNull(property);
+		if (index == null)
+			return false;	// association path, whose joined values may be null
+		return !persister.getPropertyNullability()[index] 
+				|| persister.getPropertyTypes()[index].getReturnedClass().isPrimitive();
+	}
+
+	/**
+	 * Lists a page for ordered criteria, seeking from the retained keyset if it
+	 * belongs to the page before this one, and retains the keyset of this page.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<T> keysetPage(Session sess, Criteria crit, BaseCriteriaBuildAndSort sorter, long first, long count) {
+		String idProperty = ((SessionFactoryImplementor) sess.getSessionFactory()).getMetamodel()
+				.entityPersister(objectClass).getIdentifierPropertyName();
+		String property = sorter == null ? null : sorter.getSortProperty();
+		boolean asc = sorter == null || sorter.isSortAscending();
+		boolean cased = sorter == null || sorter.isSortCased();
+		String criteriaKey = crit.toString() + cased;
+		
+		if (idProperty == null) {	// composite identifier
+			crit.setFirstResult((int)first);
+		} else {
+			crit.addOrder(asc ? Order.asc(idProperty) : Order.desc(idProperty));
+			if (first > 0 && first == keysetFirst && criteriaKey.equals(keysetCriteria)
+					&& asc == keysetAscending && (property == null ? keysetProperty == null : property.equals(keysetProperty))) {
+				Criterion after = asc ? Restrictions.gt(idProperty, keysetId) : Restrictions.lt(idProperty, keysetId);
+				if (property != null) {
+					String prop = sorter.processProperty(crit, property);
+					SimpleExpression beyond = asc ? Restrictions.gt(prop, keysetValue) : Restrictions.lt(prop, keysetValue),
+						same = Restrictions.eq(prop, keysetValue);
+					if (!cased && keysetValue instanceof String) {
+						beyond = beyond.ignoreCase();
+						same = same.ignoreCase();
+					}
+					after = Restrictions.or(beyond, Restrictions.and(same, after));
+				}
+				crit.add(after);
+			} else
+				crit.setFirstResult((int)first);
+		}
+		crit.setMaxResults((int)count);
+		if (fetchSize != null)
+			crit.setFetchSize(fetchSize);
+		List<T> page = crit.list();
+		
+		keysetFirst = -1;
+		if (idProperty != null && !page.isEmpty() && page.size() == count) {
+			T last = page.get(page.size() - 1);
+			Object value = property == null ? null : PropertyResolver.getValue(property, last);
+			if (property == null || value instanceof Serializable) {
+				keysetFirst = first + count;
+				keysetCriteria = criteriaKey;
+				keysetProperty = property;
+				keysetAscending = asc;
+				keysetValue = (Serializable) value;
+				keysetId = sess.getIdentifier(last);
+			}
+		}
+		return page;
+	}
+	
+	/** @return milliseconds counts are retained between requests, or 0 if they are not */
+	public long getSizeCacheTimeout() {
+		return sizeCacheTimeout;
+	}
+
+	/**
+	 * Retain counts between requests, for all users, in the session factory's CountCache.
+	 * A count is discarded when it expires or when a committed write touches any table 
+	 * it was counted from. Within a request counts are always retained until detach,
+	 * for as long as the built query and its parameters do not change. Counts whose tables
+	 * can not be determined, as of native queries or criteria with aliases, are not
+	 * retained between requests.
+	 * @param sizeCacheTimeout milliseconds to retain counts, or 0 to not retain them
+	 * @return this, for chaining
+	 * @see CountCache
+	 */
+	public HibernateProvider<T> setSizeCacheTimeout(long sizeCacheTimeout) {
+		this.sizeCacheTimeout = sizeCacheTimeout;
+		return this;
+	}
+	
+	/** @return maximum count, or 0 if all results are counted */
+	public long getSizeCap() {
+		return sizeCap;
+	}
+
+	/**
+	 * Counting every result of a very large table is often the most expensive query
+	 * of a listing page. With a cap, no more than cap + 1 results are counted and size()
+	 * returns at most the cap, so that navigation is limited to the first cap results.
+	 * Use isSizeCapped() to label the total as, for example, "1000+".
+	 * <p>On the criteria path the identifiers of up to cap + 1 results are selected. On
+	 * the query path the (entity) query is scrolled to its last row within the cap,
+	 * and the count query is not used.</p>
+	 * @param sizeCap maximum count, or 0 to count all results
+	 * @return this, for chaining
+	 */
+	public HibernateProvider<T> setSizeCap(long sizeCap) {
+		this.sizeCap = sizeCap;
+		return this;
+	}
+
+	/** @return true if a size cap is set and there are more results than the cap */
+	public boolean isSizeCapped() {
+		return sizeCap > 0 && countSize() > sizeCap;
+	}
+
+	/** @return estimator used in place of a count, or null */
+	public SizeEstimator getSizeEstimator() {
+		return sizeEstimator;
+	}
+
+	/**
+	 * Use an estimate, such as the row count in database statistics, in place of a
+	 * count. The estimate is retained for the request like a count, but is not applied
+	 * to the size cache. Estimates do not account for criteria or query restrictions.
+	 * @param sizeEstimator estimator, or null to count
+	 * @return this, for chaining
+	 */
+	public HibernateProvider<T> setSizeEstimator(SizeEstimator sizeEstimator) {
+		this.sizeEstimator = sizeEstimator;
+		return this;
 	}
 	
 	/**
@@ -189,29 +627,151 @@ public class HibernateProvider<T> extends PropertyDataProvider<T> {
 	 * criteria projection is not possible.
 	 */
 	public long size() {
+		long size = countSize();
+		return sizeCap > 0 && size > sizeCap ? sizeCap : size;
+	}
+
+	/** @return count or estimate, no more than one over the size cap if set */
+	private long countSize() {
 		Session sess =  Databinder.getHibernateSession(factoryKey);
+		
+		if (sizeEstimator != null) {
+			List<Object> key = Collections.<Object>singletonList(sizeEstimator);
+			if (!key.equals(sizeKey)) {
+				sizeKey = key;
+				sizeValue = sizeEstimator.estimateSize(sess);
+			}
+			return sizeValue;
+		}
+
+		if (sizeCap > 0 && queryBuilder != null) {
+			Query<T> q = queryBuilder.build(sess);
+			List<Object> key = cappedKey(QuerySignature.of(sess, q));
+			Long cached = cachedSize(sess, key);
+			if (cached != null)
+				return cached;
+			long stamp = sizeStamp(sess);
+			q.setMaxResults((int) Math.min(sizeCap + 1, Integer.MAX_VALUE));
+			long size;
+			try (ScrollableResults results = q.scroll(ScrollMode.SCROLL_INSENSITIVE)) {
+				size = results.last() ? results.getRowNumber() + 1 : 0;
+			}
+			return cacheSize(sess, key, size, 
+					sizeCacheTimeout > 0 ? QuerySignature.querySpaces(sess, q) : null, stamp);
+		}
 
 		if(countQueryBuilder != null) {
 			Query<Number> q = countQueryBuilder.build(sess);
-			return q.uniqueResult().intValue();
+			List<Object> key = QuerySignature.of(sess, q);
+			Long cached = cachedSize(sess, key);
+			if (cached != null)
+				return cached;
+			long stamp = sizeStamp(sess);
+			long size = q.uniqueResult().intValue();
+			return cacheSize(sess, key, size, 
+					sizeCacheTimeout > 0 ? QuerySignature.querySpaces(sess, q) : null, stamp);
 		}
 		
 		Criteria crit = sess.createCriteria(objectClass);
 		
 		if (criteriaBuilder != null)
 			criteriaBuilder.buildUnordered(crit);
-		crit.setProjection(Projections.rowCount());
-		Long size = (Long) crit.uniqueResult();
-		return size == null ? 0 : size;
+		List<Object> key = cappedKey(QuerySignature.of(sess, crit));
+		Long cached = cachedSize(sess, key);
+		if (cached == null && pageWithCount && lastFirst >= 0) {
+			countedIds(sess, QuerySignature.of(sess, crit), lastFirst, lastCount);
+			cached = cachedSize(sess, key);
+		}
+		if (cached != null)
+			return cached;
+		long stamp = sizeStamp(sess);
+		Set<Serializable> querySpaces = sizeCacheTimeout > 0 
+				? QuerySignature.querySpaces(sess, crit, objectClass) : null;
+		long size;
+		if (sizeCap > 0) {
+			crit.setProjection(Projections.id());
+			crit.setMaxResults((int) Math.min(sizeCap + 1, Integer.MAX_VALUE));
+			size = crit.list().size();
+		} else {
+			crit.setProjection(Projections.rowCount());
+			Long count = (Long) crit.uniqueResult();
+			size = count == null ? 0 : count;
+		}
+		return cacheSize(sess, key, size, querySpaces, stamp);
+	}
+	
+	/** @return key distinguished by the size cap, if set */
+	private List<Object> cappedKey(List<Object> key) {
+		if (sizeCap == 0 || key == null)
+			return key;
+		List<Object> capped = new ArrayList<>(key);
+		capped.add(sizeCap);
+		return capped;
 	}
+	
+	/** @return count for the key retained in this request or the count cache, or null */
+	private Long cachedSize(Session sess, List<Object> key) {
+		if (key == null)
+			return null;
+		if (key.equals(sizeKey))
+			return sizeValue;
+		if (sizeCacheTimeout > 0) {
+			Long size = CountCache.get(sess.getSessionFactory()).get(key);
+			if (size != null) {
+				sizeKey = key;
+				sizeValue = size;
+			}
+			return size;
+		}
+		return null;
+	}
+	
+	/** @return count cache stamp to take before counting, if the cache is enabled */
+	private long sizeStamp(Session sess) {
+		return sizeCacheTimeout > 0 ? CountCache.get(sess.getSessionFactory()).stamp() : 0;
+	}
+	
+	/**
+	 * Retains count for this request and, if enabled, in the count cache. Counts of
+	 * unknown tables, such as those of criteria with joins, are not cached.
+	 */
+	private long cacheSize(Session sess, List<Object> key, long size, Set<Serializable> querySpaces,
+			long stamp) {
+		sizeKey = key;
+		sizeValue = size;
+		if (sizeCacheTimeout > 0 && key != null)
+			CountCache.get(sess.getSessionFactory()).put(key, size, querySpaces, sizeCacheTimeout, stamp);
+		return size;
+	}
+
 
+	/** @return true if item models are batch loading */
+	public boolean isBatchLoadModels() {
+		return batchLoadModels;
+	}
+
+	/**
+	 * Batch loading item models that are reused in a later request, as with an item reuse
+	 * strategy, load their entities with one query instead of one query each.
+	 * @param batchLoadModels true to create batch loading item models
+	 * @return this, for chaining
+	 * @see HibernateObjectModel#setBatchLoad(boolean)
+	 */
+	public HibernateProvider<T> setBatchLoadModels(boolean batchLoadModels) {
+		this.batchLoadModels = batchLoadModels;
+		return this;
+	}
 
 	@Override
 	protected IModel<T> dataModel(T object) {
-		return new HibernateObjectModel<>(object);
+		return new HibernateObjectModel<>(object).setFactoryKey(factoryKey).setBatchLoad(batchLoadModels);
 	}
 	
-	/** does nothing */
+	/** Discards the count and page retained for this request. */
 	public void detach() {
+		sizeKey = null;
+		countedKey = null;
+		countedIds = null;
+		countedRows = null;
 	}
 }
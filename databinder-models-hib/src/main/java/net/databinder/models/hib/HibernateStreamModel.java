@@ -0,0 +1,214 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.query.Query;
+
+import net.databinder.hib.Databinder;
+
+/**
+ * Model for the results of a Hibernate query, streamed from a forward-only scrollable
+ * result rather than listed. Entities returned in result rows are evicted from the session
+ * in chunks, one chunk behind, so that the session's first-level cache does not grow with
+ * the size of the result. Each call to <code>iterator()</code> runs the query again.
+ * <p>
+ * Only the entities of the rows themselves are evicted. Associated entities loaded with
+ * them, by eager fetching or while rendering, remain in the session unless the association
+ * cascades eviction. The model does not bound the memory of its consumer either: a
+ * repeater such as <code>IterableEntityView</code> creates an item and an entity model for
+ * every row as it populates, so streaming spares only the result list and session cache.
+ * Consumers that need memory independent of the result size must process each row and
+ * keep nothing of it, as when writing an export to the response.
+ * <p>
+ * Evicted entities are detached, so associations to be read from them should be fetched
+ * by the query. Some JDBC drivers only stream with a particular fetch size (MySQL, for one,
+ * requires <code>Integer.MIN_VALUE</code>).
+ * 
+ * @param T the type of the result item
+ * @see HibernateListModel
+ */
+public class HibernateStreamModel<T> extends LoadableDetachableModel<Iterable<T>> {
+	private static final long serialVersionUID = 1L;
+
+	private QueryBuilder<T> queryBuilder;
+	private Class<T> itemClass;
+	private CriteriaBuilder criteriaBuilder;
+
+	private Object factoryKey;
+
+	/** JDBC fetch size and eviction chunk size. */
+	private int fetchSize = 100;
+
+	/** Results open in this request. */
+	private transient List<ScrollableResults> openResults;
+
+	/**
+	 * Constructor for a parameterized query.
+	 * @param queryString Query with parameters
+	 * @param itemClass the class of the result items
+	 * @param queryBinder object that binds the query parameters
+	 */
+	public HibernateStreamModel(Class<T> itemClass, String queryString, QueryBinder<T> queryBinder) {
+		this(new QueryBinderBuilder<T>(itemClass, queryString, queryBinder));
+	}
+
+	/**
+	 * Constructor for results in class matching a built criteria.
+	 * @param itemClass class for root criteria
+	 * @param criteriaBuilder builder to apply criteria restrictions, may be null
+	 */
+	public HibernateStreamModel(Class<T> itemClass, CriteriaBuilder criteriaBuilder) {
+		this.itemClass = itemClass;
+		this.criteriaBuilder = criteriaBuilder;
+	}
+
+	/**
+	 * Constructor for a custom query that is built by the calling application.
+	 * @param queryBuilder builder to create and bind query object
+	 */
+	public HibernateStreamModel(QueryBuilder<T> queryBuilder) {
+		this.queryBuilder = queryBuilder;
+	}
+
+	/** @return session factory key, or null for the default factory */
+	public Object getFactoryKey() {
+		return factoryKey;
+	}
+
+	/**
+	 * Set a factory key other than the default (null).
+	 * @param key session factory key
+	 * @return this, for chaining
+	 */
+	public HibernateStreamModel<T> setFactoryKey(Object key) {
+		this.factoryKey = key;
+		return this;
+	}
+
+	/** @return JDBC fetch size, also the number of results evicted at once */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * @param fetchSize JDBC fetch size, also the number of results evicted at once
+	 * @return this, for chaining
+	 */
+	public HibernateStreamModel<T> setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		return this;
+	}
+
+	@Override
+	protected Iterable<T> load() {
+		return new Iterable<T>() {
+			public Iterator<T> iterator() {
+				return new StreamIterator(scroll());
+			}
+		};
+	}
+
+	/** Closes results left open by unfinished iteration. */
+	@Override
+	protected void onDetach() {
+		if (openResults != null)
+			for (ScrollableResults results : openResults)
+				results.close();
+		openResults = null;
+	}
+
+	@SuppressWarnings("deprecation")
+	private ScrollableResults scroll() {
+		Session session = Databinder.getHibernateSession(factoryKey);
+		ScrollableResults results;
+		if (queryBuilder != null) {
+			Query<T> query = queryBuilder.build(session);
+			query.setFetchSize(fetchSize);
+			results = query.scroll(ScrollMode.FORWARD_ONLY);
+		} else {
+			Criteria criteria = session.createCriteria(itemClass);
+			if (criteriaBuilder != null)
+				criteriaBuilder.build(criteria);
+			criteria.setFetchSize(fetchSize);
+			results = criteria.scroll(ScrollMode.FORWARD_ONLY);
+		}
+		if (openResults == null)
+			openResults = new ArrayList<>();
+		openResults.add(results);
+		return results;
+	}
+
+	private class StreamIterator implements Iterator<T> {
+		private final ScrollableResults results;
+		private final SessionImplementor session = (SessionImplementor) Databinder.getHibernateSession(factoryKey);
+		/** results of the last complete chunk, and the current one */
+		private List<Object[]> previous = new ArrayList<>(), current = new ArrayList<>();
+		private Boolean hasNext;
+
+		StreamIterator(ScrollableResults results) {
+			this.results = results;
+		}
+
+		public boolean hasNext() {
+			if (hasNext == null) {
+				hasNext = results.next();
+				if (!hasNext) {
+					results.close();
+					if (openResults != null)
+						openResults.remove(results);
+				}
+			}
+			return hasNext;
+		}
+
+		@SuppressWarnings("unchecked")
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			hasNext = null;
+			Object[] row = results.get();
+			if (current.size() == fetchSize) {
+				for (Object[] consumed : previous)
+					for (Object o : consumed)
+						if (o != null && session.getPersistenceContext().isEntryFor(o))
+							session.evict(o);
+				previous = current;
+				current = new ArrayList<>(fetchSize);
+			}
+			current.add(row);
+			return (T) (row.length == 1 ? row[0] : row);
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.wicket.core.util.lang.PropertyResolver;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+import net.databinder.hib.EntityWriteNotifier;
+
+/**
+ * Search backend keeping an embedded Lucene index of selected entity properties. Each
+ * search word must match a word of an indexed property, or its beginning; results are
+ * ranked by Lucene's relevance score. Register with {@link SearchBackends} to keep the
+ * index in sync with committed writes, and call {@link #rebuild(Class)} when the
+ * index is new or may have missed writes (committed changes are flushed to the directory
+ * by {@link #commit()} and {@link #close()}).
+ * <p>
+ * Requires <code>lucene-core</code> on the classpath. Indexed property paths are read
+ * from entities after commit, so paths through lazy associations should be avoided.
+ */
+public class LuceneSearchBackend implements SearchBackend, EntityWriteNotifier.Listener, Closeable {
+
+	private static final String ID = "_id", TYPE = "_type", UID = "_uid", ALL = "_all";
+
+	private final SessionFactoryImplementor sf;
+	private final Analyzer analyzer;
+	private final IndexWriter writer;
+	private final SearcherManager searcherManager;
+	/** indexed properties by root entity name */
+	private final Map<String, String[]> indexed = new ConcurrentHashMap<>();
+
+	/**
+	 * @param sf session factory of the indexed entities
+	 * @param directory index directory
+	 * @throws IOException if the index can not be opened
+	 */
+	public LuceneSearchBackend(SessionFactory sf, Directory directory) throws IOException {
+		this(sf, directory, new StandardAnalyzer());
+	}
+
+	/**
+	 * @param sf session factory of the indexed entities
+	 * @param directory index directory
+	 * @param analyzer analyzer for indexed properties and search text
+	 * @throws IOException if the index can not be opened
+	 */
+	public LuceneSearchBackend(SessionFactory sf, Directory directory, Analyzer analyzer) throws IOException {
+		this.sf = (SessionFactoryImplementor) sf;
+		this.analyzer = analyzer;
+		writer = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+		searcherManager = new SearcherManager(writer, null);
+	}
+
+	/**
+	 * @param entityClass mapped class to index
+	 * @param properties property paths to index
+	 * @return this, for chaining
+	 */
+	public LuceneSearchBackend index(Class<?> entityClass, String... properties) {
+		indexed.put(persister(entityClass).getRootEntityName(), properties);
+		return this;
+	}
+
+	public List<Serializable> search(Class<?> entityClass, String text, int maxResults) {
+		EntityPersister persister = persister(entityClass);
+		if (!indexed.containsKey(persister.getRootEntityName()))
+			return null;
+		BooleanQuery.Builder query = new BooleanQuery.Builder()
+			.add(new TermQuery(new Term(TYPE, persister.getRootEntityName())), Occur.FILTER);
+		try {
+			List<String> words = analyze(text);
+			if (words.isEmpty())
+				return null;
+			for (String word : words)
+				query.add(new BooleanQuery.Builder()
+					.add(new TermQuery(new Term(ALL, word)), Occur.SHOULD)
+					.add(new PrefixQuery(new Term(ALL, word)), Occur.SHOULD).build(), Occur.MUST);
+			IndexSearcher searcher = searcherManager.acquire();
+			try {
+				List<Serializable> ids = new ArrayList<>();
+				Class<?> idClass = persister.getIdentifierType().getReturnedClass();
+				for (ScoreDoc hit : searcher.search(query.build(), maxResults).scoreDocs) {
+					String id = searcher.doc(hit.doc).get(ID);
+					if (Long.class.equals(idClass))
+						ids.add(Long.valueOf(id));
+					else if (Integer.class.equals(idClass))
+						ids.add(Integer.valueOf(id));
+					else if (String.class.equals(idClass))
+						ids.add(id);
+					else
+						return null;	// identifier type not supported
+				}
+				return ids;
+			} finally {
+				searcherManager.release(searcher);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Updates the index with committed writes to indexed entities. */
+	public void entityWritten(EntityPersister persister, Serializable id, Object entity, boolean deleted) {
+		String[] properties = indexed.get(persister.getRootEntityName());
+		if (properties == null)
+			return;
+		try {
+			if (deleted)
+				writer.deleteDocuments(uid(persister, id));
+			else
+				writer.updateDocument(uid(persister, id), document(persister, id, entity, properties));
+			searcherManager.maybeRefresh();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Writes are handled with their entities. */
+	public void entityWritten(EntityPersister persister) {
+	}
+
+	/**
+	 * Replaces the index of an entity class with its current rows, read in a session of
+	 * its own that is cleared as it goes.
+	 * @param entityClass indexed class
+	 */
+	public void rebuild(Class<?> entityClass) throws IOException {
+		EntityPersister persister = persister(entityClass);
+		String[] properties = indexed.get(persister.getRootEntityName());
+		writer.deleteDocuments(new Term(TYPE, persister.getRootEntityName()));
+		try (Session sess = sf.openSession()) {
+			sess.setDefaultReadOnly(true);
+			sess.setHibernateFlushMode(FlushMode.MANUAL);
+			ScrollableResults results = sess.createQuery("from " + persister.getEntityName())
+				.setFetchSize(500).scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				for (int i = 1; results.next(); i++) {
+					Object entity = results.get(0);
+					writer.addDocument(document(persister, sess.getIdentifier(entity), entity, properties));
+					if (i % 500 == 0)
+						sess.clear();
+				}
+			} finally {
+				results.close();
+			}
+		}
+		commit();
+	}
+
+	/** Writes index changes to the directory. */
+	public void commit() throws IOException {
+		writer.commit();
+		searcherManager.maybeRefresh();
+	}
+
+	/** Commits and closes the index. */
+	@Override
+	public void close() throws IOException {
+		searcherManager.close();
+		writer.close();
+	}
+
+	private Document document(EntityPersister persister, Serializable id, Object entity, String[] properties) {
+		Document doc = new Document();
+		doc.add(new StringField(UID, uid(persister, id).text(), Field.Store.NO));
+		doc.add(new StringField(ID, id.toString(), Field.Store.YES));
+		doc.add(new StringField(TYPE, persister.getRootEntityName(), Field.Store.NO));
+		StringBuilder all = new StringBuilder();
+		for (String property : properties) {
+			Object value = PropertyResolver.getValue(property, entity);
+			if (value != null) {
+				doc.add(new TextField(property, value.toString(), Field.Store.NO));
+				all.append(value).append(' ');
+			}
+		}
+		doc.add(new TextField(ALL, all.toString(), Field.Store.NO));
+		return doc;
+	}
+
+	private static Term uid(EntityPersister persister, Serializable id) {
+		return new Term(UID, persister.getRootEntityName() + "#" + id);
+	}
+
+	private List<String> analyze(String text) throws IOException {
+		List<String> words = new ArrayList<>();
+		try (TokenStream stream = analyzer.tokenStream(ALL, text)) {
+			CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while (stream.incrementToken())
+				words.add(term.toString());
+			stream.end();
+		}
+		return words;
+	}
+
+	private EntityPersister persister(Class<?> entityClass) {
+		return sf.getMetamodel().entityPersister(entityClass);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.hibernate.Session;
+
+/**
+ * Retains, in the Wicket session, the identifiers of batch loading models that were
+ * detached at the end of a request. When the first of these models loads in the following
+ * request, every pending entity of its class and factory is loaded into the Hibernate session
+ * with one multi-load (<code>in</code>) query, and the other models then find their entities
+ * in the session. Identifiers not loaded by the following request are discarded. Hibernate
+ * statistics (entity load and prepared statement counts) show the effect.
+ * @see HibernateObjectModel#setBatchLoad(boolean)
+ */
+class ModelBatchLoader implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final MetaDataKey<ModelBatchLoader> KEY = new MetaDataKey<ModelBatchLoader>() {
+		private static final long serialVersionUID = 1L;
+	};
+
+	/** Maximum pending identifiers per class and factory. */
+	static final int MAX_BATCH_SIZE = 500;
+
+	/** Pending identifiers by factory key and class. */
+	private transient Map<List<Object>, Set<Serializable>> pending;
+
+	/** Request in which identifiers are being recorded. */
+	private transient WeakReference<RequestCycle> recordingCycle;
+
+	/** @return loader for the current Wicket session, or null if there is none */
+	static ModelBatchLoader get() {
+		if (!org.apache.wicket.Session.exists())
+			return null;
+		org.apache.wicket.Session session = org.apache.wicket.Session.get();
+		synchronized (session) {
+			ModelBatchLoader loader = session.getMetaData(KEY);
+			if (loader == null) {
+				loader = new ModelBatchLoader();
+				session.setMetaData(KEY, loader);
+			}
+			return loader;
+		}
+	}
+
+	/**
+	 * Records an identifier to load with others of its class in the next request. 
+	 * Identifiers recorded by an earlier request are discarded.
+	 */
+	synchronized void detached(Object factoryKey, Class<?> objectClass, Serializable id) {
+		RequestCycle cycle = RequestCycle.get();
+		if (pending == null)
+			pending = new HashMap<>();
+		if (recordingCycle == null || recordingCycle.get() != cycle) {
+			pending.clear();
+			recordingCycle = new WeakReference<>(cycle);
+		}
+		Set<Serializable> ids = pending.get(key(factoryKey, objectClass));
+		if (ids == null)
+			pending.put(key(factoryKey, objectClass), ids = new LinkedHashSet<>());
+		if (ids.size() < MAX_BATCH_SIZE)
+			ids.add(id);
+	}
+
+	/**
+	 * Loads pending entities of the class into the session, if the given identifier is
+	 * among them.
+	 */
+	void load(Session sess, Object factoryKey, Class<?> objectClass, Serializable id) {
+		List<Serializable> ids;
+		synchronized (this) {
+			if (pending == null)
+				return;
+			Set<Serializable> pendingIds = pending.get(key(factoryKey, objectClass));
+			if (pendingIds == null || !pendingIds.contains(id))
+				return;
+			pending.remove(key(factoryKey, objectClass));
+			ids = new ArrayList<>(pendingIds);
+		}
+		if (ids.size() > 1)
+			sess.byMultipleIds(objectClass).multiLoad(ids);
+	}
+
+	private static List<Object> key(Object factoryKey, Class<?> objectClass) {
+		return Arrays.asList(factoryKey, objectClass);
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+
+/**
+ * Builds a query that was registered by name with the session factory, binding it
+ * with any given binders.
+ * @see net.databinder.hib.NamedQueries
+ */
+public class NamedQueryBuilder<R> implements QueryBuilder<R> {
+
+	private static final long serialVersionUID = 1L;
+	private String name;
+	private List<QueryBinder<R>> binders = new ArrayList<>();
+	private Class<R> queryResultType;
+
+	/**
+	 * @param queryResultType type of the query results
+	 * @param name name of the registered query
+	 * @param binders binders for query parameters
+	 */
+	@SafeVarargs
+	public NamedQueryBuilder(Class<R> queryResultType, String name, QueryBinder<R>... binders) {
+		this.name = name;
+		for (QueryBinder<R> binder : binders)
+			this.binders.add(binder);
+		this.queryResultType = queryResultType;
+	}
+
+	public Query<R> build(Session sess) {
+		Query<R> q = sess.createNamedQuery(name, queryResultType);
+		for (QueryBinder<R> b : binders)
+			b.bind(q);
+		return q;
+	}
+
+	/** @return name of the registered query */
+	public String getName() {
+		return name;
+	}
+}
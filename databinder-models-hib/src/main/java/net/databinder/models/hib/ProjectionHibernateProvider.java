@@ -0,0 +1,242 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.databinder.models.hib;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wicket.extensions.markup.html.repeater.data.sort.ISortState;
+import org.apache.wicket.extensions.markup.html.repeater.data.sort.ISortStateLocator;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.IColumn;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.ISortableDataProvider;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.PropertyColumn;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.Model;
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.criterion.ProjectionList;
+import org.hibernate.criterion.Projections;
+import org.hibernate.internal.CriteriaImpl;
+import org.hibernate.internal.CriteriaImpl.Subcriteria;
+
+import net.databinder.hib.Databinder;
+import net.databinder.models.PropertyDataProvider;
+
+/**
+ * Provides rows of selected entity properties to DataTable, in place of whole entities.
+ * The property expressions of the table's PropertyColumns (or the given property paths)
+ * are selected with the entity identifier in a single criteria projection, so that
+ * unused columns and eager associations are not loaded or hydrated. Each row is a map
+ * of property names to values, with dotted paths nested in maps of their own so that the
+ * columns' property expressions resolve against the row unchanged. The identifier is
+ * held under its property name; use {@link #entityModel(Map)} to reach the entity.
+ * <p>Associations on dotted paths are joined with left outer join aliases named as in
+ * {@link BaseCriteriaBuildAndSort}, whose aliases are shared if the criteria builder
+ * extends it. Otherwise aliases the builder created are reused by name. Paths must end in a property with a single value, not a collection.</p>
+ * @param <T> entity type
+ * @param <S> sort property type
+ */
+public class ProjectionHibernateProvider<T, S> extends PropertyDataProvider<Map<String, Object>>
+		implements ISortableDataProvider<Map<String, Object>, S> {
+	private static final long serialVersionUID = 1L;
+
+	private Class<T> objectClass;
+	private OrderingCriteriaBuilder criteriaBuilder;
+	private List<String> properties;
+	/** Columns read for property expressions, if given. */
+	private List<? extends IColumn<Map<String, Object>, S>> columns;
+	private Object factoryKey;
+
+	private ISortStateLocator<S> sortStateLocator;
+
+	/** Count for the current request, cleared on detach. */
+	private transient Long size;
+
+	/**
+	 * Selects the property expressions of the PropertyColumns among the columns.
+	 * @param objectClass entity class
+	 * @param columns table columns, which may be added to the list after this call
+	 * @param criteriaBuilder builder for restrictions and order, may be null; its sort
+	 * state is used if it implements ISortStateLocator
+	 */
+	public ProjectionHibernateProvider(Class<T> objectClass, List<? extends IColumn<Map<String, Object>, S>> columns,
+			OrderingCriteriaBuilder criteriaBuilder) {
+		this(objectClass, criteriaBuilder);
+		this.columns = columns;
+	}
+
+	/**
+	 * Selects the given property paths.
+	 * @param objectClass entity class
+	 * @param criteriaBuilder builder for restrictions and order, may be null; its sort
+	 * state is used if it implements ISortStateLocator
+	 * @param properties property paths to select
+	 */
+	@SuppressWarnings("unchecked")
+	public ProjectionHibernateProvider(Class<T> objectClass, OrderingCriteriaBuilder criteriaBuilder, String... properties) {
+		this.objectClass = objectClass;
+		this.criteriaBuilder = criteriaBuilder;
+		this.properties = Arrays.asList(properties);
+		if (criteriaBuilder instanceof ISortStateLocator)
+			sortStateLocator = (ISortStateLocator<S>) criteriaBuilder;
+		setWrapWithPropertyModel(false);
+	}
+
+	/** @return session factory key, or null for the default factory */
+	public Object getFactoryKey() {
+		return factoryKey;
+	}
+
+	/**
+	 * Set a factory key other than the default (null).
+	 * @param key session factory key
+	 * @return this, for chaining
+	 */
+	public ProjectionHibernateProvider<T, S> setFactoryKey(Object key) {
+		this.factoryKey = key;
+		return this;
+	}
+
+	/** @return property paths selected, besides the identifier */
+	public List<String> getProperties() {
+		if (columns == null)
+			return properties;
+		List<String> paths = new ArrayList<>();
+		for (IColumn<Map<String, Object>, S> column : columns)
+			if (column instanceof PropertyColumn) {
+				String path = ((PropertyColumn<Map<String, Object>, S>) column).getPropertyExpression();
+				if (path != null && !paths.contains(path))
+					paths.add(path);
+			}
+		return paths;
+	}
+
+	public ISortState<S> getSortState() {
+		return sortStateLocator == null ? null : sortStateLocator.getSortState();
+	}
+
+	/**
+	 * It should not normally be necessary to override (or call) this default implementation.
+	 */
+	@SuppressWarnings({ "unchecked", "deprecation" })
+	public Iterator<? extends Map<String, Object>> iterator(long first, long count) {
+		Session sess = Databinder.getHibernateSession(factoryKey);
+		Criteria crit = sess.createCriteria(objectClass);
+		if (criteriaBuilder != null)
+			criteriaBuilder.buildOrdered(crit);
+		Set<String> aliases = existingAliases(crit);
+
+		String idProperty = getIdentifierProperty(sess);
+		List<String> paths = getProperties();
+		ProjectionList projection = Projections.projectionList().add(Projections.id());
+		for (String path : paths)
+			projection.add(Projections.property(criteriaBuilder instanceof BaseCriteriaBuildAndSort
+					? ((BaseCriteriaBuildAndSort) criteriaBuilder).processProperty(crit, path)
+					: BaseCriteriaBuildAndSort.processProperty(crit, aliases, path)));
+		crit.setProjection(projection);
+		crit.setFirstResult((int)first);
+		crit.setMaxResults((int)count);
+
+		List<Object[]> results = crit.list();
+		List<Map<String, Object>> rows = new ArrayList<>(results.size());
+		for (Object[] result : results) {
+			Map<String, Object> row = new HashMap<>();
+			row.put(idProperty, result[0]);
+			for (int i = 0; i < paths.size(); i++)
+				put(row, paths.get(i), result[i + 1]);
+			rows.add(row);
+		}
+		return rows.iterator();
+	}
+
+	/** @return aliases the criteria builder already created, which are not created again */
+	private static Set<String> existingAliases(Criteria crit) {
+		Set<String> aliases = new HashSet<>();
+		if (crit instanceof CriteriaImpl)
+			for (Iterator<Subcriteria> it = ((CriteriaImpl) crit).iterateSubcriteria(); it.hasNext(); )
+				aliases.add(it.next().getAlias());
+		return aliases;
+	}
+
+	/** Puts the value in the row, nesting maps for each dotted segment of the path. */
+	@SuppressWarnings("unchecked")
+	private static void put(Map<String, Object> row, String path, Object value) {
+		String[] names = path.split("\\.");
+		Map<String, Object> map = row;
+		for (int i = 0; i < names.length - 1; i++) {
+			Object next = map.get(names[i]);
+			if (next == null) {
+				next = new HashMap<String, Object>();
+				map.put(names[i], next);
+			} else if (!(next instanceof Map))
+				return;	// selected as an entity, which resolves the path itself
+			map = (Map<String, Object>) next;
+		}
+		map.put(names[names.length - 1], value);
+	}
+
+	/** @return identifier property name, also the key of the identifier in rows */
+	private String getIdentifierProperty(Session sess) {
+		return EntityMetadata.get(sess.getSessionFactory(), objectClass).getIdentifierPropertyName();
+	}
+
+	/**
+	 * Only override this method if a single count projection is not possible.
+	 */
+	@SuppressWarnings("deprecation")
+	public long size() {
+		if (size == null) {
+			Criteria crit = Databinder.getHibernateSession(factoryKey).createCriteria(objectClass);
+			if (criteriaBuilder != null)
+				criteriaBuilder.buildUnordered(crit);
+			crit.setProjection(Projections.rowCount());
+			Long count = (Long) crit.uniqueResult();
+			size = count == null ? 0 : count;
+		}
+		return size;
+	}
+
+	/**
+	 * @param row row returned by this provider
+	 * @return model of the row's entity, loaded only when its object is requested
+	 */
+	public IModel<T> entityModel(Map<String, Object> row) {
+		Session sess = Databinder.getHibernateSession(factoryKey);
+		return new HibernateObjectModel<>(objectClass, (Serializable) row.get(getIdentifierProperty(sess)))
+				.setFactoryKey(factoryKey);
+	}
+
+	@Override
+	protected IModel<Map<String, Object>> dataModel(Map<String, Object> row) {
+		return Model.ofMap(row);
+	}
+
+	/** Discards the count retained for this request. */
+	@Override
+	public void detach() {
+		size = null;
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.engine.spi.TypedValue;
+import org.hibernate.internal.CriteriaImpl;
+import org.hibernate.internal.CriteriaImpl.CriterionEntry;
+import org.hibernate.internal.CriteriaImpl.OrderEntry;
+import org.hibernate.internal.CriteriaImpl.Subcriteria;
+import org.hibernate.loader.criteria.CriteriaQueryTranslator;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.query.Query;
+import org.hibernate.query.QueryParameter;
+import org.hibernate.query.internal.AbstractProducedQuery;
+import org.hibernate.query.internal.QueryParameterBindingsImpl;
+import org.hibernate.query.spi.QueryParameterBinding;
+import org.hibernate.query.spi.QueryParameterListBinding;
+import org.hibernate.type.Type;
+
+/**
+ * Keys and query spaces (the tables read) of built queries and criteria, used to
+ * cache their results.
+ */
+final class QuerySignature {
+
+	private QuerySignature() {
+	}
+
+	/**
+	 * Builds the key of a query from its query string, paging, and its parameters with
+	 * their bound values, in name order. Values bound as lists are keyed as lists, and entity
+	 * values by identifier.
+	 * @return key of the query, or null if one can not be built
+	 */
+	@SuppressWarnings("deprecation")
+	static List<Object> of(Session sess, Query<?> query) {
+		if (!(query instanceof AbstractProducedQuery))
+			return null;
+		QueryParameterBindingsImpl bindings = ((AbstractProducedQuery<?>) query).getQueryParameterBindings();
+		SharedSessionContractImplementor session = (SharedSessionContractImplementor) sess;
+		Map<String, Object> params = new TreeMap<>();
+		try {
+			for (QueryParameter<?> param : query.getParameterMetadata().collectAllParameters()) {
+				Object value = null;	// unbound
+				if (bindings.isBound(param)) {
+					QueryParameterBinding<?> binding;
+					try {
+						binding = bindings.getBinding(param);
+					} catch (IllegalArgumentException e) {
+						binding = null;	// bound as a list
+					}
+					if (binding != null)
+						value = disassemble(session, binding.getBindValue(), binding.getBindType());
+					else {
+						QueryParameterListBinding<?> list = bindings.getQueryParameterListBinding(param);
+						List<Object> values = new ArrayList<>();
+						for (Object v : list.getBindValues())
+							values.add(disassemble(session, v, list.getBindType()));
+						value = values;
+					}
+				}
+				params.put(param.getName() != null ? param.getName() : "?" + param.getPosition(), value);
+			}
+		} catch (HibernateException e) {
+			return null;	// unsaved entity values
+		}
+		List<Object> key = new ArrayList<>(3 + params.size() * 2);
+		key.add(query.getQueryString());
+		key.add(query.getFirstResult());
+		key.add(query.getMaxResults());
+		for (Map.Entry<String, Object> param : params.entrySet()) {
+			key.add(param.getKey());
+			key.add(param.getValue());
+		}
+		return key;
+	}
+
+	/** @return value in its cacheable form, the identifier for entities */
+	private static Object disassemble(SharedSessionContractImplementor session, Object value, Type type) {
+		if (value == null)
+			return null;
+		if (type == null)
+			type = session.getFactory().resolveParameterBindType(value);
+		return type == null ? value : type.disassemble(value, session, null);
+	}
+
+	/**
+	 * Builds the key of criteria from its root entity, joins, restrictions as SQL with
+	 * their bound values, orders, paging, projection and result transformer. Entity values
+	 * are keyed by identifier.
+	 * @return key of the criteria, or null if one can not be built
+	 */
+	static List<Object> of(Session sess, Criteria criteria) {
+		if (!(criteria instanceof CriteriaImpl))
+			return null;
+		CriteriaImpl impl = (CriteriaImpl) criteria;
+		SessionFactoryImplementor factory = factory(sess);
+		SharedSessionContractImplementor session = (SharedSessionContractImplementor) sess;
+		List<Object> key = new ArrayList<>();
+		try {
+			String[] implementors = factory.getMetamodel().getImplementors(impl.getEntityOrClassName());
+			if (implementors.length != 1)
+				return null;
+			CriteriaQueryTranslator translator = new CriteriaQueryTranslator(factory, impl, implementors[0],
+					CriteriaQueryTranslator.ROOT_SQL_ALIAS);
+			key.add(implementors[0]);
+			key.add(impl.getAlias());
+			for (Iterator<Subcriteria> it = impl.iterateSubcriteria(); it.hasNext(); ) {
+				Subcriteria sub = it.next();
+				key.add(sub.getPath());
+				key.add(sub.getAlias());
+				key.add(sub.getJoinType());
+				key.add(sub.getWithClause() == null ? null : sub.getWithClause().toSqlString(sub, translator));
+			}
+			for (Iterator<CriterionEntry> it = impl.iterateExpressionEntries(); it.hasNext(); ) {
+				CriterionEntry entry = it.next();
+				key.add(entry.getCriterion().toSqlString(entry.getCriteria(), translator));
+				for (TypedValue value : entry.getCriterion().getTypedValues(entry.getCriteria(), translator))
+					key.add(value.getValue() == null ? null
+							: value.getType().disassemble(value.getValue(), session, null));
+			}
+			for (Iterator<OrderEntry> it = impl.iterateOrderings(); it.hasNext(); ) {
+				OrderEntry entry = it.next();
+				key.add(entry.getOrder().toSqlString(entry.getCriteria(), translator));
+			}
+		} catch (HibernateException e) {
+			return null;	// unsaved entity values, or unresolvable paths
+		}
+		key.add(impl.getFirstResult());
+		key.add(impl.getMaxResults());
+		key.add(impl.getProjection() == null ? null : impl.getProjection().toString());
+		key.add(impl.getResultTransformer());
+		return key;
+	}
+
+	/**
+	 * @return tables read by the query, or null if they can not be determined
+	 */
+	static Set<Serializable> querySpaces(Session sess, Query<?> query) {
+		if (query instanceof NativeQuery)
+			return null;
+		try {
+			@SuppressWarnings({ "unchecked", "deprecation" })
+			Set<Serializable> spaces = factory(sess).getQueryPlanCache()
+				.getHQLQueryPlan(query.getQueryString(), false, Collections.emptyMap()).getQuerySpaces();
+			return new HashSet<>(spaces);
+		} catch (HibernateException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return tables holding the criteria's entity class, or null if the criteria
+	 * joins other entities
+	 */
+	static Set<Serializable> querySpaces(Session sess, Criteria criteria, Class<?> entityClass) {
+		if (criteria instanceof CriteriaImpl && ((CriteriaImpl) criteria).iterateSubcriteria().hasNext())
+			return null;
+		return querySpaces(sess, entityClass);
+	}
+
+	/** @return tables holding the entity class */
+	static Set<Serializable> querySpaces(Session sess, Class<?> entityClass) {
+		return new HashSet<>(Arrays.asList(
+				factory(sess).getMetamodel().entityPersister(entityClass).getQuerySpaces()));
+	}
+
+	private static SessionFactoryImplementor factory(Session sess) {
+		return (SessionFactoryImplementor) sess.getSessionFactory();
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.criterion.CriteriaQuery;
+import org.hibernate.criterion.Order;
+
+/**
+ * Orders by the position of each row's numeric identifier in a list of ranked
+ * identifiers, as returned by a {@link SearchBackend}.
+ */
+class RankOrder extends Order {
+	private static final long serialVersionUID = 1L;
+
+	private final String idProperty;
+	private final List<Serializable> ids;
+
+	RankOrder(String idProperty, List<Serializable> ids) {
+		super(idProperty, true);
+		this.idProperty = idProperty;
+		this.ids = ids;
+	}
+
+	/** @return true if the identifiers can be written into SQL as literals */
+	static boolean isRankable(List<Serializable> ids) {
+		if (ids == null || ids.isEmpty())
+			return false;
+		for (Serializable id : ids)
+			if (!(id instanceof Long || id instanceof Integer || id instanceof Short))
+				return false;
+		return true;
+	}
+
+	@Override
+	public String toSqlString(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+		String column = criteriaQuery.getColumnsUsingProjection(criteria, idProperty)[0];
+		StringBuilder sql = new StringBuilder("case ").append(column);
+		for (int i = 0; i < ids.size(); i++)
+			sql.append(" when ").append(((Number) ids.get(i)).longValue()).append(" then ").append(i);
+		return sql.append(" else ").append(ids.size()).append(" end").toString();
+	}
+
+	@Override
+	public String toString() {
+		return "rank of " + idProperty;
+	}
+}
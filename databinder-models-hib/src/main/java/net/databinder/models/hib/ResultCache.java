@@ -0,0 +1,243 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.MultiIdentifierLoadAccess;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+
+import net.databinder.hib.EntityWriteNotifier;
+
+/**
+ * Application-wide cache of query results for one session factory. Entity results are stored
+ * as identifiers and multi-loaded on a hit; scalar results are stored as copies. Entries are
+ * discarded least recently used first when there are more than {@link #setMaxEntries(int)}
+ * entries or {@link #setMaxRows(long)} rows in all, and when a committed write touches any
+ * table they were selected from.
+ * @see HibernateListModel#setCacheResults(boolean)
+ */
+public class ResultCache implements EntityWriteNotifier.Listener {
+
+	private static final Map<SessionFactory, ResultCache> caches = new WeakHashMap<>();
+
+	private final LinkedHashMap<List<Object>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private int maxEntries = 1000;
+	private long maxRows = 100000;
+	/** rows held by all entries */
+	private long rows;
+	/** incremented by each invalidation, to reject results selected before one */
+	private long generation;
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+	private static class Entry {
+		/** root entity name of identifier results, or null for scalar results */
+		final String entityName;
+		final List<Object> values;
+		/** tables selected from, or null if unknown */
+		final Set<Serializable> querySpaces;
+		Entry(String entityName, List<Object> values, Set<Serializable> querySpaces) {
+			this.entityName = entityName;
+			this.values = values;
+			this.querySpaces = querySpaces;
+		}
+	}
+
+	/**
+	 * @param sf session factory the results are selected from
+	 * @return result cache for the session factory
+	 */
+	public static synchronized ResultCache get(SessionFactory sf) {
+		ResultCache cache = caches.get(sf);
+		if (cache == null) {
+			cache = new ResultCache();
+			EntityWriteNotifier.get(sf).addListener(cache);
+			caches.put(sf, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * @param sess session to load cached entities into
+	 * @param key query key
+	 * @return cached results, or null if none are cached
+	 */
+	public List<Object> get(Session sess, List<Object> key) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		List<Object> results = new ArrayList<>(entry.values.size());
+		if (entry.entityName != null) {
+			@SuppressWarnings("unchecked")
+			List<Serializable> ids = (List<Serializable>) (List<?>) entry.values;
+			@SuppressWarnings("unchecked")
+			MultiIdentifierLoadAccess<Object> access = sess.byMultipleIds(entry.entityName);
+			for (Object o : access.multiLoad(ids))
+				if (o != null)
+					results.add(o);
+		} else
+			for (Object o : entry.values)
+				results.add(o instanceof Object[] ? ((Object[]) o).clone() : o);
+		return results;
+	}
+
+	/** @return stamp to pass to {@link #put} for results selected after this call */
+	public synchronized long stamp() {
+		return generation;
+	}
+
+	/**
+	 * Caches the results unless the cache was invalidated since the stamp was taken, the
+	 * session has written in its transaction, or the results mix entities and other values.
+	 * @param sess session that selected the results
+	 * @param key query key
+	 * @param results query results
+	 * @param querySpaces tables the results are selected from, or null if unknown
+	 * @param stamp stamp taken before the query
+	 */
+	public void put(Session sess, List<Object> key, List<?> results, Set<Serializable> querySpaces, long stamp) {
+		SessionImplementor session = (SessionImplementor) sess;
+		if (session.getActionQueue().hasAfterTransactionActions())
+			return;	// may select uncommitted writes
+		String entityName = null;
+		List<Object> values = new ArrayList<>(results.size());
+		for (Object row : results) {
+			if (isEntity(session, row)) {
+				EntityPersister persister = session.getEntityPersister(null, row);
+				if (entityName == null && values.isEmpty())
+					entityName = persister.getRootEntityName();
+				else if (!persister.getRootEntityName().equals(entityName))
+					return;
+				values.add(session.getIdentifier(row));
+			} else if (entityName != null)
+				return;
+			else if (row instanceof Object[]) {
+				for (Object o : (Object[]) row)
+					if (isEntity(session, o))
+						return;
+				values.add(((Object[]) row).clone());
+			} else
+				values.add(row);
+		}
+		synchronized (this) {
+			if (stamp != generation)
+				return;
+			Entry old = entries.put(key, new Entry(entityName, values, querySpaces));
+			if (old != null)
+				rows -= old.values.size();
+			rows += values.size();
+			for (Iterator<Entry> it = entries.values().iterator(); it.hasNext()
+					&& (entries.size() > maxEntries || rows > maxRows); ) {
+				rows -= it.next().values.size();
+				it.remove();
+			}
+		}
+	}
+
+	private static boolean isEntity(SessionImplementor session, Object o) {
+		return o instanceof HibernateProxy || o != null && session.getPersistenceContext().isEntryFor(o);
+	}
+
+	/** Discards results selected from any of the given tables, or from unknown tables. */
+	public synchronized void invalidate(Serializable... querySpaces) {
+		generation++;
+		Set<Serializable> written = new HashSet<>();
+		Collections.addAll(written, querySpaces);
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+			Entry entry = it.next();
+			if (entry.querySpaces == null || !Collections.disjoint(entry.querySpaces, written)) {
+				rows -= entry.values.size();
+				it.remove();
+			}
+		}
+	}
+
+	/** Discards all results. */
+	public synchronized void clear() {
+		generation++;
+		entries.clear();
+		rows = 0;
+	}
+
+	/** Discards results from the written entity's tables. */
+	public void entityWritten(EntityPersister persister) {
+		invalidate(persister.getQuerySpaces());
+	}
+
+	/** @return number of lookups that found results */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** @return number of lookups that found no results */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** @return number of cached results */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/** @return number of rows in all cached results */
+	public synchronized long getRowCount() {
+		return rows;
+	}
+
+	/**
+	 * @param maxEntries maximum number of cached results, 1000 by default
+	 * @return this, for chaining
+	 */
+	public synchronized ResultCache setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		return this;
+	}
+
+	/**
+	 * Bounds the memory used by the cache, as the number of rows (identifiers or scalar
+	 * values) held in all results.
+	 * @param maxRows maximum number of rows in all cached results, 100000 by default
+	 * @return this, for chaining
+	 */
+	public synchronized ResultCache setMaxRows(long maxRows) {
+		this.maxRows = maxRows;
+		return this;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Full-text index of entities, queried in place of <code>ilike</code> restrictions by
+ * {@link CriteriaSearchAndSort} and other search builders when registered with
+ * {@link SearchBackends}.
+ */
+public interface SearchBackend {
+	/**
+	 * @param entityClass class of entities to search
+	 * @param text search text as entered
+	 * @param maxResults maximum number of identifiers to return
+	 * @return identifiers of matching entities, most relevant first, or null if the class
+	 * is not indexed and should be searched otherwise
+	 */
+	List<Serializable> search(Class<?> entityClass, String text, int maxResults);
+}
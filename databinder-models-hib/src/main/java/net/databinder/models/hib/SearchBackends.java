@@ -0,0 +1,201 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.Session;
+import org.hibernate.Criteria;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.CriteriaImpl;
+import org.hibernate.persister.entity.EntityPersister;
+
+import net.databinder.hib.EntityWriteNotifier;
+
+/**
+ * Search backends by session factory. Backends that are also write listeners are
+ * notified of committed entity writes to keep their indexes current. The identifiers
+ * of recent searches are kept in the Wicket session until an entity is written.
+ * A backend is unregistered, and closed if it is Closeable, when its session factory
+ * is closed.
+ */
+public class SearchBackends {
+
+	private static final Map<SessionFactory, SearchBackend> backends = new WeakHashMap<>();
+
+	private static final Map<SessionFactory, AtomicLong> generations = new WeakHashMap<>();
+
+	/** Number of searches remembered per Wicket session. */
+	private static final int RECENT_SEARCHES = 20;
+
+	private static final MetaDataKey<RecentSearches> RECENT = new MetaDataKey<RecentSearches>() {
+		private static final long serialVersionUID = 1L;
+	};
+
+	/** Recent search results of a Wicket session; not replicated. */
+	private static class RecentSearches implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private transient Map<List<Object>, List<Serializable>> results;
+
+		synchronized List<Serializable> get(List<Object> key) {
+			return results == null ? null : results.get(key);
+		}
+
+		synchronized void put(List<Object> key, List<Serializable> ids) {
+			if (results == null)
+				results = new LinkedHashMap<List<Object>, List<Serializable>>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<List<Object>, List<Serializable>> eldest) {
+						return size() > RECENT_SEARCHES;
+					}
+				};
+			results.put(key, ids);
+		}
+	}
+
+	private SearchBackends() {
+	}
+
+	/**
+	 * @param sf session factory of the indexed entities
+	 * @param backend backend to search them with
+	 */
+	public static synchronized void register(SessionFactory sf, SearchBackend backend) {
+		if (!generations.containsKey(sf)) {
+			final AtomicLong generation = new AtomicLong();
+			generations.put(sf, generation);
+			EntityWriteNotifier.get(sf).addListener(persister -> generation.incrementAndGet());
+			((SessionFactoryImplementor) sf).addObserver(new Unregister());
+		}
+		SearchBackend old = backends.put(sf, backend);
+		if (old instanceof EntityWriteNotifier.Listener)
+			EntityWriteNotifier.get(sf).removeListener((EntityWriteNotifier.Listener) old);
+		if (backend instanceof EntityWriteNotifier.Listener)
+			EntityWriteNotifier.get(sf).addListener((EntityWriteNotifier.Listener) backend);
+	}
+
+	/**
+	 * Unregisters and closes the backend of a closed session factory, which would
+	 * otherwise keep the factory from being collected.
+	 */
+	private static class Unregister implements SessionFactoryObserver {
+		private static final long serialVersionUID = 1L;
+		@Override
+		public void sessionFactoryClosed(SessionFactory factory) {
+			SearchBackend backend;
+			synchronized (SearchBackends.class) {
+				backend = backends.remove(factory);
+				generations.remove(factory);
+			}
+			if (backend instanceof Closeable)
+				try {
+					((Closeable) backend).close();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+		}
+	}
+
+	/** @return backend for the session factory, or null if none is registered */
+	public static synchronized SearchBackend get(SessionFactory sf) {
+		return backends.get(sf);
+	}
+
+	/**
+	 * Restricts the criteria to the identifiers of its root entities matching the text in
+	 * the registered backend, if any. Only the most relevant matches, up to the maximum,
+	 * are included, so the criteria's count is truncated at the maximum.
+	 * @param criteria criteria to restrict
+	 * @param text search text
+	 * @param maxResults maximum number of matching entities, each bound as a query parameter
+	 * @return matching identifiers, most relevant first, or null if the criteria was not
+	 * restricted and should be searched otherwise
+	 */
+	public static List<Serializable> restrict(Criteria criteria, String text, int maxResults) {
+		if (!(criteria instanceof CriteriaImpl))
+			return null;
+		CriteriaImpl impl = (CriteriaImpl) criteria;
+		SessionFactoryImplementor sf = impl.getSession().getFactory();
+		SearchBackend backend = get(sf);
+		if (backend == null)
+			return null;
+		EntityPersister persister = sf.getMetamodel().entityPersister(impl.getEntityOrClassName());
+		String idProperty = persister.getIdentifierPropertyName();
+		if (idProperty == null)
+			return null;	// composite identifier
+		List<Serializable> ids = search(sf, backend, persister, text, maxResults);
+		if (ids == null)
+			return null;
+		criteria.add(ids.isEmpty() ? Restrictions.sqlRestriction("1=0")
+				: Restrictions.in(impl.getAlias() + "." + idProperty, ids));
+		return ids;
+	}
+
+	/** Searches the backend, or returns the identifiers of the same search if no entity was written since. */
+	private static List<Serializable> search(SessionFactoryImplementor sf, SearchBackend backend,
+			EntityPersister persister, String text, int maxResults) {
+		RecentSearches recent = recentSearches();
+		AtomicLong generation;
+		synchronized (SearchBackends.class) {
+			generation = generations.get(sf);
+		}
+		if (recent == null || generation == null)
+			return backend.search(persister.getMappedClass(), text, maxResults);
+		List<Object> key = Arrays.asList(sf.getUuid(), persister.getEntityName(), text, maxResults, generation.get());
+		List<Serializable> ids = recent.get(key);
+		if (ids == null) {
+			ids = backend.search(persister.getMappedClass(), text, maxResults);
+			if (ids != null) {
+				ids = Collections.unmodifiableList(ids);
+				recent.put(key, ids);
+			}
+		}
+		return ids;
+	}
+
+	/** @return recent searches of the current Wicket session, or null outside of one */
+	private static RecentSearches recentSearches() {
+		if (!Session.exists())
+			return null;
+		Session session = Session.get();
+		synchronized (session) {
+			RecentSearches recent = session.getMetaData(RECENT);
+			if (recent == null) {
+				recent = new RecentSearches();
+				session.setMetaData(RECENT, recent);
+			}
+			return recent;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import java.io.Serializable;
+
+import org.hibernate.Session;
+
+/**
+ * Estimates the number of results of a data provider without counting them, typically
+ * from statistics the database keeps for its query planner.
+ * @see HibernateProvider#setSizeEstimator(SizeEstimator)
+ * @see SqlSizeEstimator
+ */
+public interface SizeEstimator extends Serializable {
+	/**
+	 * @param hibernateSession session for the current request cycle
+	 * @return estimated number of results
+	 */
+	long estimateSize(Session hibernateSession);
+}
@@ -0,0 +1,49 @@
+/*
+ * Databinder: a simple bridge from Wicket to Hibernate
+ * Copyright (C) 2006  Nathan Hamblen nathan@technically.us
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.databinder.models.hib;
+
+import org.hibernate.Session;
+
+/**
+ * Estimates size with a native SQL query returning a single number. Statistics queries are
+ * database specific; for example, on PostgreSQL:
+ * <pre>
+ * new SqlSizeEstimator("select reltuples::bigint from pg_class where relname = 'orders'")
+ * </pre>
+ * and on MySQL:
+ * <pre>
+ * new SqlSizeEstimator("select table_rows from information_schema.tables where table_name = 'orders'")
+ * </pre>
+ */
+public class SqlSizeEstimator implements SizeEstimator {
+	private static final long serialVersionUID = 1L;
+
+	private String sql;
+
+	/** @param sql native query returning one numeric value */
+	public SqlSizeEstimator(String sql) {
+		this.sql = sql;
+	}
+
+	public long estimateSize(Session hibernateSession) {
+		Number size = (Number) hibernateSession.createNativeQuery(sql).uniqueResult();
+		return size == null ? 0 : Math.max(size.longValue(), 0);
+	}
+}
@@ -20,6 +20,8 @@
 package net.databinder.models.jpa;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 
@@ -123,28 +125,42 @@ public class JPAObjectModel<T> extends LoadableWritableModel<T> implements Bindi
    	return Databinder.getEntityManager(factoryKey).find(objectClass, objectId);
 	}
 
+	/** Version getter or field of each class, found once. */
+	private static final ClassValue<MethodHandle> versionAccessors = new ClassValue<MethodHandle>() {
+		@Override
+		protected MethodHandle computeValue(final Class<?> c) {
+			final MethodHandles.Lookup lookup = MethodHandles.lookup();
+			try {
+				for (final Method m : c.getMethods()) {
+					if (m.isAnnotationPresent(Version.class) && m.getParameterTypes().length == 0) {
+						return lookup.unreflect(m);
+					}
+				}
+				for (final Field f : c.getDeclaredFields()) {
+					if (f.isAnnotationPresent(Version.class)) {
+						f.setAccessible(true);
+						return lookup.unreflectGetter(f);
+					}
+				}
+			} catch (final IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+			return null;
+		}
+	};
+
 	/**
 	 * Uses version annotation to find version for this Model's object.
 	 * @return Persistent storage version number if available, null otherwise
 	 */
 	public Serializable getVersion() {
 		final Object o = getObject();
+		final MethodHandle accessor = versionAccessors.get(objectClass);
 
-		if (o != null) {
+		if (o != null && accessor != null) {
 			try {
-				for (final Method m : objectClass.getMethods()) {
-          if (m.isAnnotationPresent(Version.class)
-							&& m.getParameterTypes().length == 0) {
-            return (Serializable) m.invoke(o, new Object[] {});
-          }
-        }
-				for (final Field f : objectClass.getDeclaredFields()) {
-          if (f.isAnnotationPresent(Version.class)) {
-						f.setAccessible(true);
-						return (Serializable) f.get(o);
-					}
-        }
-			} catch (final Exception e) {
+				return (Serializable) accessor.invoke(o);
+			} catch (final Throwable e) {
 				throw new RuntimeException(e);
 			}
 		}